@@ -39,7 +39,7 @@ else
     JAVA_OPTS="-server -Xms512m -Xmx512m -XX:MaxGCPauseMillis=200 -XX:+UseG1GC -XX:InitiatingHeapOccupancyPercent=75"
 fi
 
-JAVA_OPTS=" $JAVA_OPTS -Djava.awt.headless=true -Djava.net.preferIPv4Stack=true -Dfile.encoding=UTF-8"
+JAVA_OPTS=" $JAVA_OPTS -Djava.awt.headless=true -Djava.net.preferIPv4Stack=true -Dfile.encoding=UTF-8 -Djdk.tls.server.enableSessionTicketExtension=true"
 PRG_OPTS="-Dlog4j2.properties=$logging_config -Dnotification.config.location=$notification_config"
 
 if [ -e $notification_config -a -e $logging_config ]
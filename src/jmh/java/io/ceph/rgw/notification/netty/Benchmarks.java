@@ -0,0 +1,39 @@
+package io.ceph.rgw.notification.netty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fixtures shared by the benchmarks.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+final class Benchmarks {
+    /**
+     * A batch of notifications as posted by Rados gateway.
+     */
+    static final String OBJECT_EVENTS = "/object-events.json";
+    /**
+     * An object metadata info as indexed to ElasticSearch and delivered to subscribers.
+     */
+    static final String OBJECT_METADATA_INFO = "/object-metadata-info.json";
+
+    private Benchmarks() {
+    }
+
+    static byte[] resource(String name) throws IOException {
+        try (InputStream in = Benchmarks.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("cannot find resource: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.ceph.rgw.client.model.notification.ObjectMetadataInfo;
+import io.ceph.rgw.notification.model.ObjectEvents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson costs of the publish path, deserializing a notification batch and serializing an object metadata info.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+    private byte[] events;
+    private ObjectMetadataInfo info;
+
+    @Setup
+    public void setup() throws IOException {
+        events = Benchmarks.resource(Benchmarks.OBJECT_EVENTS);
+        info = NotificationHandler.MAPPER.readValue(Benchmarks.resource(Benchmarks.OBJECT_METADATA_INFO), ObjectMetadataInfo.class);
+    }
+
+    @Benchmark
+    public ObjectEvents deserializeEvents() throws IOException {
+        return NotificationHandler.MAPPER.readValue(events, ObjectEvents.class);
+    }
+
+    @Benchmark
+    public byte[] serializeInfo() throws JsonProcessingException {
+        return NotificationHandler.MAPPER.writeValueAsBytes(info);
+    }
+}
@@ -0,0 +1,84 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing one frame to every subscriber, through a channel group against a loop of writes with void promises,
+ * over embedded channels whose outbound messages are released after each fan-out.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+    @Param({"100", "10000"})
+    private int subscribers;
+    private ChannelGroup group;
+    private EmbeddedChannel[] channels;
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() throws IOException {
+        group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        channels = new EmbeddedChannel[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            // embedded channels share one id by default, which a channel group would keep only one of
+            channels[i] = new EmbeddedChannel(DefaultChannelId.newInstance());
+            group.add(channels[i]);
+        }
+        frame = FrameEncoder.encode(PooledByteBufAllocator.DEFAULT, 1, Benchmarks.resource(Benchmarks.OBJECT_METADATA_INFO));
+    }
+
+    @TearDown
+    public void tearDown() {
+        group.close();
+        frame.release();
+    }
+
+    @Benchmark
+    public void channelGroup() {
+        group.writeAndFlush(frame.retainedDuplicate());
+        drain();
+    }
+
+    @Benchmark
+    public void loop() {
+        for (Channel channel : channels) {
+            channel.writeAndFlush(frame.retainedDuplicate(), channel.voidPromise());
+        }
+        drain();
+    }
+
+    private void drain() {
+        for (EmbeddedChannel channel : channels) {
+            channel.releaseOutbound();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodings of the subscribe stream, the cost of encoding an event into a variant on the server,
+ * the cost of decoding its message on a client, and the bytes on the wire.
+ * The wire bytes per frame are the bytes counter divided by the frames counter.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    // generated benchmark code sets parameters from another package, where the format enum is not visible
+    @Param({"JSON", "SMILE", "CBOR"})
+    private String formatName;
+    @Param({"false", "true"})
+    private boolean gzip;
+    private FrameVariant variant;
+    private ObjectMapper mapper;
+    private byte[] bytes;
+    private ByteBuf message;
+    private long sequence;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long frames;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        FrameFormat format = FrameFormat.valueOf(formatName);
+        variant = FrameVariant.of(format, null, gzip, Transport.CHUNKED);
+        mapper = new ObjectMapper(format.getFactory());
+        bytes = Benchmarks.resource(Benchmarks.OBJECT_METADATA_INFO);
+        EventFrames frames = new EventFrames(alloc, NotificationHandler.MAPPER, 1, FrameEncoder.encode(alloc, 1, bytes));
+        try {
+            ByteBuf frame = frames.get(FrameVariant.of(format, null, false, Transport.CHUNKED));
+            message = (format.isBinary() ? frame.slice(4, frame.readableBytes() - 4) : FrameEncoder.message(frame)).copy();
+        } finally {
+            frames.release();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        message.release();
+    }
+
+    @Benchmark
+    public int encode(Wire wire) throws IOException {
+        EventFrames frames = new EventFrames(alloc, NotificationHandler.MAPPER, ++sequence, FrameEncoder.encode(alloc, sequence, bytes));
+        try {
+            int length = frames.get(variant).readableBytes();
+            wire.frames++;
+            wire.bytes += length;
+            return length;
+        } finally {
+            frames.release();
+        }
+    }
+
+    /**
+     * Decodes an uncompressed message, which is what a client parses after framing and decompression.
+     */
+    @Benchmark
+    public JsonNode decode() throws IOException {
+        return mapper.readTree(new ByteBufInputStream(message.duplicate()));
+    }
+}
@@ -0,0 +1,92 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing overhead of a published event, the single pass encoder against the composite frame it replaced,
+ * which was made of a length buffer, the message and two retained duplicates of a shared line separator.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+    private static final byte[] SEQUENCE_PREFIX = "{\"sequence\":".getBytes(CharsetUtil.US_ASCII);
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private ByteBuf lineSeparator;
+    private byte[] bytes;
+    private long sequence;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Benchmarks.resource(Benchmarks.OBJECT_METADATA_INFO);
+        lineSeparator = alloc.heapBuffer(2, 2).writeBytes("\r\n".getBytes(CharsetUtil.US_ASCII));
+    }
+
+    @TearDown
+    public void tearDown() {
+        lineSeparator.release();
+    }
+
+    @Benchmark
+    public int encoder() {
+        ByteBuf frame = FrameEncoder.encode(alloc, ++sequence, bytes);
+        try {
+            return frame.readableBytes();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public int stampedEncoder() {
+        ByteBuf frame = FrameEncoder.encode(alloc, ++sequence, 1593561600000L, 1593561600042L, bytes);
+        try {
+            return frame.readableBytes();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public int composite() {
+        ByteBuf message = alloc.directBuffer(SEQUENCE_PREFIX.length + 21 + bytes.length);
+        message.writeBytes(SEQUENCE_PREFIX);
+        ByteBufUtil.writeAscii(message, Long.toString(++sequence));
+        message.writeByte(',');
+        message.writeBytes(bytes, 1, bytes.length - 1);
+        byte[] length = Integer.toString(message.readableBytes()).getBytes(CharsetUtil.US_ASCII);
+        ByteBuf len = alloc.directBuffer(length.length, length.length).writeBytes(length);
+        CompositeByteBuf frame = new CompositeByteBuf(alloc, true, 4);
+        frame.addComponents(true, len, lineSeparator.retainedDuplicate(), message, lineSeparator.retainedDuplicate());
+        try {
+            return frame.readableBytes();
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.ceph.rgw.notification.netty;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The matching pass of a fan-out, subscribers spread evenly over distinct conditions.
+ * Shared evaluates each condition once per event as the fan-out does, per subscriber evaluates every subscriber.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/9.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatcherBenchmark {
+    @Param({"1", "1000", "100000"})
+    private int subscribers;
+    @Param({"1", "16", "1024"})
+    private int conditions;
+    private Matcher[] matchers;
+    private Map<String, String> metadata;
+
+    @Setup
+    public void setup() {
+        matchers = new Matcher[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            matchers[i] = Matcher.of("['camera'] == 'camera-" + i % conditions + "' and ['content-type'].startsWith('image/')");
+        }
+        metadata = new HashMap<>();
+        metadata.put("camera", "camera-0");
+        metadata.put("content-type", "image/jpeg");
+        metadata.put("owner", "ops");
+    }
+
+    @Benchmark
+    public int shared() {
+        Map<Matcher, Boolean> matches = new IdentityHashMap<>();
+        int matched = 0;
+        for (Matcher matcher : matchers) {
+            if (matches.computeIfAbsent(matcher, m -> m.matches(metadata))) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int perSubscriber() {
+        int matched = 0;
+        for (Matcher matcher : matchers) {
+            if (matcher.matches(metadata)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
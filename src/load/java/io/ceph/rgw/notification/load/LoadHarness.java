@@ -0,0 +1,204 @@
+package io.ceph.rgw.notification.load;
+
+import io.ceph.rgw.client.config.Configuration;
+import io.ceph.rgw.notification.NotificationService;
+import io.ceph.rgw.notification.metrics.Metrics;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the notification service under a synthetic load on a single box, with a stub Rados gateway and a stub ElasticSearch
+ * in the same process, and reports throughput, latency percentiles and memory.
+ * <p>
+ * The service is started by its own main class, with the packaged configuration pointed at the stubs.
+ * Memory is measured for the whole process, so the per connection figure of idle subscribers includes
+ * the client side of each connection as well.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+public class LoadHarness {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadHarness.class);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public static void main(String[] args) throws Exception {
+        String name = System.getProperty("load.config.location");
+        Configuration config = StringUtils.isBlank(name) ? new Configuration("config/load.properties") : new Configuration(new File(name));
+        LoadProperties properties = new LoadProperties(config.getSubConfig("load"));
+        LOGGER.info("Load harness starting with [{}].", properties);
+        StubRGW rgw = new StubRGW(properties);
+        StubES es = new StubES(properties);
+        rgw.start();
+        es.start();
+        startService(properties);
+
+        EventLoopGroup group = new NioEventLoopGroup(0, new DefaultThreadFactory("load"));
+        Subscribers subscribers = new Subscribers(properties, group);
+        subscribers.connectActive();
+        if (properties.getIdleSubscribers() > 0) {
+            long[] before = memory();
+            long started = System.nanoTime();
+            subscribers.connectIdle();
+            long[] after = memory();
+            int connected = subscribers.getConnected() - properties.getSubscribers();
+            print("Idle subscribers [%d] of [%d] connected in [%d] ms, per connection: heap [%d] bytes, direct [%d] bytes.",
+                    connected, properties.getIdleSubscribers(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                    (after[0] - before[0]) / Math.max(1, connected), (after[1] - before[1]) / Math.max(1, connected));
+        }
+        Publisher publisher = new Publisher(properties, group);
+        publisher.start();
+
+        TimeUnit.SECONDS.sleep(properties.getWarmup());
+        // drops what was recorded during the warmup
+        publisher.getLatency().getIntervalHistogram();
+        subscribers.getLag().getIntervalHistogram();
+        Histogram publishLatency = new Histogram(3);
+        Histogram lag = new Histogram(3);
+        long[] start = counts(publisher, subscribers, es);
+        long startNanos = System.nanoTime();
+        long[] last = start;
+        long lastNanos = startNanos;
+        long end = startNanos + TimeUnit.SECONDS.toNanos(properties.getDuration());
+        print("%8s %12s %12s %12s %14s %12s", "seconds", "published/s", "delivered/s", "indexed/s", "publish p99 ms", "lag p99 ms");
+        while (System.nanoTime() < end) {
+            TimeUnit.SECONDS.sleep(Math.min(properties.getReportInterval(), Math.max(1, TimeUnit.NANOSECONDS.toSeconds(end - System.nanoTime()))));
+            Histogram publishInterval = publisher.getLatency().getIntervalHistogram();
+            Histogram lagInterval = subscribers.getLag().getIntervalHistogram();
+            publishLatency.add(publishInterval);
+            lag.add(lagInterval);
+            long[] now = counts(publisher, subscribers, es);
+            long nanos = System.nanoTime();
+            double seconds = (nanos - lastNanos) / 1e9;
+            print("%8d %12.0f %12.0f %12.0f %14.2f %12d", TimeUnit.NANOSECONDS.toSeconds(nanos - startNanos),
+                    (now[0] - last[0]) / seconds, (now[1] - last[1]) / seconds, (now[2] - last[2]) / seconds,
+                    publishInterval.getValueAtPercentile(99) / 1000D, lagInterval.getValueAtPercentile(99));
+            last = now;
+            lastNanos = nanos;
+        }
+        double seconds = (lastNanos - startNanos) / 1e9;
+        print("");
+        print("Throughput over [%.0f] s: published [%.0f] events/s, delivered [%.0f] frames/s [%.1f] MB/s, indexed [%.0f] documents/s.",
+                seconds, (last[0] - start[0]) / seconds, (last[1] - start[1]) / seconds, (last[3] - start[3]) / seconds / 1024 / 1024,
+                (last[2] - start[2]) / seconds);
+        print("Publish latency ms: %s", percentiles(publishLatency, 1000D));
+        print("Delivery lag ms:    %s", percentiles(lag, 1D));
+        print("Errors: publish [%d], rgw [%d] of [%d], es [%d], subscribers rejected [%d] disconnected [%d].",
+                publisher.getFailures(), rgw.getFailures(), rgw.getRequests(), es.getFailures(), subscribers.getRejected(), subscribers.getDisconnected());
+        long[] memory = memory();
+        print("Memory: heap [%d] MB, direct [%d] MB, pooled direct [%d] MB.", memory[0] >> 20, memory[1] >> 20,
+                PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory() >> 20);
+        print("");
+        for (String line : Metrics.scrape().split("\n")) {
+            if (line.startsWith("notification_") && (line.contains("quantile=\"0.99\"") || line.contains("_in_flight"))) {
+                print("%s", line);
+            }
+        }
+        publisher.close();
+        subscribers.close();
+        group.shutdownGracefully();
+        rgw.close();
+        es.close();
+        System.exit(0);
+    }
+
+    /**
+     * Starts the notification service with the packaged configuration pointed at the stubs, and waits until it answers.
+     */
+    private static void startService(LoadProperties properties) throws IOException, InterruptedException {
+        Properties config = new Properties();
+        try (InputStream in = LoadHarness.class.getClassLoader().getResourceAsStream("config/notification.properties")) {
+            if (in != null) {
+                config.load(in);
+            }
+        }
+        config.setProperty("rgwclient.connector.storages[0].endpoint", "127.0.0.1:" + properties.getRgwPort());
+        config.setProperty("notification.http.host", "127.0.0.1");
+        config.setProperty("notification.http.port", properties.getHttpPort().toString());
+        config.setProperty("notification.http.epoll", Boolean.toString("epoll".equalsIgnoreCase(properties.getTransport())));
+        config.setProperty("notification.http.freshnessStamp", "true");
+        config.setProperty("notification.es.hosts", "127.0.0.1:" + properties.getEsPort());
+        config.setProperty("notification.es.scheme", "http");
+        config.remove("notification.es.username");
+        config.remove("notification.es.password");
+        File file = File.createTempFile("notification-load", ".properties");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            config.store(out, "generated by the load harness");
+        }
+        System.setProperty("notification.config.location", file.getAbsolutePath());
+        NotificationService.main(new String[0]);
+        URL url = new URL("http://127.0.0.1:" + properties.getHttpPort() + "/");
+        for (int i = 0; ; i++) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    connection.disconnect();
+                    return;
+                }
+            } catch (IOException e) {
+                if (i >= 300) {
+                    throw e;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    /**
+     * Returns events published, frames delivered, documents indexed and bytes delivered so far.
+     */
+    private static long[] counts(Publisher publisher, Subscribers subscribers, StubES es) {
+        return new long[]{publisher.getEvents(), subscribers.getFrames(), es.getIndexed() + es.getDeleted(), subscribers.getBytes()};
+    }
+
+    /**
+     * Returns heap and direct memory in use after a collection.
+     */
+    private static long[] memory() throws InterruptedException {
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(200);
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long direct = PlatformDependent.usedDirectMemory();
+        if (direct < 0) {
+            direct = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if ("direct".equals(pool.getName())) {
+                    direct = pool.getMemoryUsed();
+                }
+            }
+        }
+        return new long[]{heap.getUsed(), direct};
+    }
+
+    private static String percentiles(Histogram histogram, double scale) {
+        StringBuilder s = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            s.append(String.format("p%s [%.2f] ", percentile, histogram.getValueAtPercentile(percentile) / scale));
+        }
+        return s.append(String.format("max [%.2f] count [%d]", histogram.getMaxValue() / scale, histogram.getTotalCount())).toString();
+    }
+
+    private static void print(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+}
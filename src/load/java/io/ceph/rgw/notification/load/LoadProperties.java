@@ -0,0 +1,206 @@
+package io.ceph.rgw.notification.load;
+
+import io.ceph.rgw.client.config.Configuration;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Properties of the load harness.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+class LoadProperties {
+    private final Integer rate;
+    private final Integer batchSize;
+    private final Integer duration;
+    private final Integer warmup;
+    private final Integer reportInterval;
+    private final Integer publishConnections;
+    private final Integer subscribers;
+    private final Integer idleSubscribers;
+    private final List<String> conditions;
+    private final Integer buckets;
+    private final Integer cardinality;
+    private final Double deleteRatio;
+    private final String transport;
+    private final Integer httpPort;
+    private final Integer rgwPort;
+    private final Integer rgwLatency;
+    private final Double rgwErrorRate;
+    private final Integer esPort;
+    private final Integer esLatency;
+    private final Double esErrorRate;
+
+    LoadProperties(Configuration config) {
+        this.rate = config.getInteger("rate", 2000);
+        this.batchSize = config.getInteger("batchSize", 10);
+        this.duration = config.getInteger("duration", 60);
+        this.warmup = config.getInteger("warmup", 10);
+        this.reportInterval = config.getInteger("reportInterval", 5);
+        this.publishConnections = config.getInteger("publishConnections", 4);
+        this.subscribers = config.getInteger("subscribers", 100);
+        this.idleSubscribers = config.getInteger("idleSubscribers", 0);
+        List<String> conditions = config.getStrings("conditions");
+        this.conditions = conditions == null || conditions.isEmpty() ? Arrays.asList("['camera'] == 'camera-1'", "['owner'].startsWith('team-')") : conditions;
+        this.buckets = config.getInteger("buckets", 4);
+        this.cardinality = config.getInteger("cardinality", 16);
+        this.deleteRatio = getDouble(config, "deleteRatio", 0.1);
+        this.transport = config.getString("transport", "epoll");
+        this.httpPort = config.getInteger("httpPort", 18080);
+        this.rgwPort = config.getInteger("rgw.port", 18090);
+        this.rgwLatency = config.getInteger("rgw.latency", 2);
+        this.rgwErrorRate = getDouble(config, "rgw.errorRate", 0D);
+        this.esPort = config.getInteger("es.port", 19200);
+        this.esLatency = config.getInteger("es.latency", 5);
+        this.esErrorRate = getDouble(config, "es.errorRate", 0D);
+    }
+
+    private static Double getDouble(Configuration config, String key, Double defaultValue) {
+        String value = config.getString(key);
+        return value == null ? defaultValue : Double.valueOf(value.trim());
+    }
+
+    /**
+     * Returns the events published per second.
+     */
+    public Integer getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the events posted in one publish request.
+     */
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the seconds measured after the warmup.
+     */
+    public Integer getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the seconds of load before measuring.
+     */
+    public Integer getWarmup() {
+        return warmup;
+    }
+
+    public Integer getReportInterval() {
+        return reportInterval;
+    }
+
+    public Integer getPublishConnections() {
+        return publishConnections;
+    }
+
+    /**
+     * Returns the number of subscribers consuming events, cycling through the conditions.
+     */
+    public Integer getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * Returns the number of subscribers whose condition never matches, which only hold their connections.
+     */
+    public Integer getIdleSubscribers() {
+        return idleSubscribers;
+    }
+
+    /**
+     * Returns the conditions of the subscribers, which cannot contain commas.
+     */
+    public List<String> getConditions() {
+        return conditions;
+    }
+
+    public Integer getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the number of distinct values of each user metadata key of the stub objects.
+     */
+    public Integer getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the ratio of delete events to all published events.
+     */
+    public Double getDeleteRatio() {
+        return deleteRatio;
+    }
+
+    /**
+     * Returns the transport of the notification server, epoll or nio.
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    public Integer getHttpPort() {
+        return httpPort;
+    }
+
+    public Integer getRgwPort() {
+        return rgwPort;
+    }
+
+    /**
+     * Returns the milliseconds the stub Rados gateway takes to answer.
+     */
+    public Integer getRgwLatency() {
+        return rgwLatency;
+    }
+
+    public Double getRgwErrorRate() {
+        return rgwErrorRate;
+    }
+
+    public Integer getEsPort() {
+        return esPort;
+    }
+
+    /**
+     * Returns the milliseconds the stub ElasticSearch takes to answer.
+     */
+    public Integer getEsLatency() {
+        return esLatency;
+    }
+
+    public Double getEsErrorRate() {
+        return esErrorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadProperties{" +
+                "rate=" + rate +
+                ", batchSize=" + batchSize +
+                ", duration=" + duration +
+                ", warmup=" + warmup +
+                ", reportInterval=" + reportInterval +
+                ", publishConnections=" + publishConnections +
+                ", subscribers=" + subscribers +
+                ", idleSubscribers=" + idleSubscribers +
+                ", conditions=" + conditions +
+                ", buckets=" + buckets +
+                ", cardinality=" + cardinality +
+                ", deleteRatio=" + deleteRatio +
+                ", transport='" + transport + '\'' +
+                ", httpPort=" + httpPort +
+                ", rgwPort=" + rgwPort +
+                ", rgwLatency=" + rgwLatency +
+                ", rgwErrorRate=" + rgwErrorRate +
+                ", esPort=" + esPort +
+                ", esLatency=" + esLatency +
+                ", esErrorRate=" + esErrorRate +
+                '}';
+    }
+}
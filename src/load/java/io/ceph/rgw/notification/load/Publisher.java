@@ -0,0 +1,194 @@
+package io.ceph.rgw.notification.load;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AttributeKey;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Posts batches of notifications to the publish endpoint at a fixed rate, as Rados gateway would.
+ * Batches are sent on schedule whether or not earlier ones were answered, pipelined over a few connections,
+ * and latency is measured from when a batch was due, so that a stalled server is not hidden by a stalled publisher.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+class Publisher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Publisher.class);
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSSSSS'Z'";
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+    // due times of the requests awaiting responses on a connection, in order
+    private static final AttributeKey<Queue<Long>> PENDING = AttributeKey.valueOf("pending");
+    private final LoadProperties properties;
+    private final EventLoopGroup group;
+    private final List<Channel> channels;
+    private final Recorder latency;
+    private final AtomicLong objects;
+    private final LongAdder events;
+    private final LongAdder batches;
+    private final LongAdder failures;
+    private long start;
+    private long sent;
+
+    Publisher(LoadProperties properties, EventLoopGroup group) {
+        this.properties = properties;
+        this.group = group;
+        this.channels = new ArrayList<>(properties.getPublishConnections());
+        this.latency = new Recorder(HIGHEST_LATENCY, 3);
+        this.objects = new AtomicLong();
+        this.events = new LongAdder();
+        this.batches = new LongAdder();
+        this.failures = new LongAdder();
+    }
+
+    void start() throws InterruptedException {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(1024 * 1024));
+                        ch.pipeline().addLast(new ResponseHandler());
+                    }
+                });
+        for (int i = 0; i < properties.getPublishConnections(); i++) {
+            channels.add(bootstrap.connect("127.0.0.1", properties.getHttpPort()).sync().channel());
+        }
+        start = System.nanoTime();
+        group.next().scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the batches due since the start, at most a second of them after a pause.
+     */
+    private void tick() {
+        long now = System.nanoTime();
+        long due = (now - start) * properties.getRate() / properties.getBatchSize() / TimeUnit.SECONDS.toNanos(1);
+        long max = Math.max(1, properties.getRate() / properties.getBatchSize());
+        if (due - sent > max) {
+            sent = due - max;
+        }
+        for (; sent < due; sent++) {
+            long dueNanos = start + sent * properties.getBatchSize() * TimeUnit.SECONDS.toNanos(1) / properties.getRate();
+            Channel ch = channels.get((int) (sent % channels.size()));
+            if (!ch.isActive()) {
+                failures.increment();
+                continue;
+            }
+            ch.attr(PENDING).get().add(dueNanos);
+            ch.writeAndFlush(request(), ch.voidPromise());
+        }
+    }
+
+    private FullHttpRequest request() {
+        StringBuilder body = new StringBuilder(256 * properties.getBatchSize()).append("{\"events\":[");
+        String timestamp = new SimpleDateFormat(DATE_FORMAT).format(new Date());
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < properties.getBatchSize(); i++) {
+            long object = objects.getAndIncrement();
+            boolean delete = random.nextDouble() < properties.getDeleteRatio();
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"id\":\"").append(object).append("\",\"event\":\"").append(delete ? "OBJECT_DELETE" : "OBJECT_CREATE")
+                    .append("\",\"timestamp\":\"").append(timestamp)
+                    .append("\",\"info\":{\"attrs\":{\"mtime\":\"\"},\"bucket\":{\"bucket_id\":\"load.1\",\"name\":\"load-")
+                    .append(object % properties.getBuckets()).append("\",\"tenant\":\"\"},\"key\":{\"instance\":\"\",\"name\":\"objects/")
+                    .append(object).append(".jpg\"}}}");
+        }
+        body.append("]}");
+        ByteBuf content = ByteBufUtil.writeUtf8(PooledByteBufAllocator.DEFAULT, body);
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/publish", content);
+        request.headers().set(HttpHeaderNames.HOST, "127.0.0.1:" + properties.getHttpPort())
+                .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                .set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        events.add(properties.getBatchSize());
+        return request;
+    }
+
+    /**
+     * Returns the latency recorder of publish requests in microseconds.
+     */
+    Recorder getLatency() {
+        return latency;
+    }
+
+    long getEvents() {
+        return events.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    void close() {
+        channels.forEach(Channel::close);
+    }
+
+    private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            ctx.channel().attr(PENDING).set(new ConcurrentLinkedQueue<>());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            Long due = ctx.channel().attr(PENDING).get().poll();
+            if (due == null) {
+                return;
+            }
+            latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due), HIGHEST_LATENCY));
+            batches.increment();
+            int code = response.status().code();
+            if (code != HttpResponseStatus.CONTINUE.code() && code != HttpResponseStatus.OK.code()) {
+                failures.increment();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Publish connection failed.", cause);
+            ctx.close();
+        }
+    }
+}
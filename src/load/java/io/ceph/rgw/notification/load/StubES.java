@@ -0,0 +1,169 @@
+package io.ceph.rgw.notification.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stub ElasticSearch 6.x node, which acknowledges index, bulk and delete by query requests without storing anything,
+ * reports the index as existing and answers searches with no hits.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+class StubES extends StubServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubES.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String INFO = "{\"name\":\"stub\",\"cluster_name\":\"stub\",\"cluster_uuid\":\"_na_\"," +
+            "\"version\":{\"number\":\"6.8.5\",\"build_flavor\":\"default\",\"build_type\":\"tar\",\"build_hash\":\"stub\"," +
+            "\"build_date\":\"2019-11-13T00:00:00.000Z\",\"build_snapshot\":false,\"lucene_version\":\"7.7.2\"," +
+            "\"minimum_wire_compatibility_version\":\"5.6.0\",\"minimum_index_compatibility_version\":\"5.0.0\"}," +
+            "\"tagline\":\"You Know, for Search\"}";
+    private static final String DELETED = "{\"took\":1,\"timed_out\":false,\"total\":1,\"deleted\":1,\"batches\":1," +
+            "\"version_conflicts\":0,\"noops\":0,\"retries\":{\"bulk\":0,\"search\":0},\"throttled_millis\":0," +
+            "\"requests_per_second\":-1.0,\"throttled_until_millis\":0,\"failures\":[]}";
+    private static final String NO_HITS = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+            "\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}";
+    private static final String REJECTED = "{\"error\":{\"root_cause\":[{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected by stub\"}]," +
+            "\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected by stub\"},\"status\":429}";
+    private final AtomicLong seqNo;
+    private final LongAdder indexed;
+    private final LongAdder bulks;
+    private final LongAdder deleted;
+    private final LongAdder failures;
+
+    StubES(LoadProperties properties) {
+        super("stub-es", properties.getEsPort(), properties.getEsLatency(), properties.getEsErrorRate());
+        this.seqNo = new AtomicLong();
+        this.indexed = new LongAdder();
+        this.bulks = new LongAdder();
+        this.deleted = new LongAdder();
+        this.failures = new LongAdder();
+    }
+
+    @Override
+    protected FullHttpResponse respond(FullHttpRequest request) {
+        String path = new QueryStringDecoder(request.uri()).path();
+        String[] segments = path.substring(1).split("/");
+        if (path.equals("/")) {
+            return json(HttpResponseStatus.OK, INFO);
+        }
+        if (request.method() == HttpMethod.HEAD) {
+            return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.EMPTY_BUFFER);
+        }
+        String last = segments[segments.length - 1];
+        if ("_bulk".equals(last)) {
+            bulks.increment();
+            return json(HttpResponseStatus.OK, bulk(request.content().toString(CharsetUtil.UTF_8)));
+        }
+        if ("_delete_by_query".equals(last)) {
+            deleted.increment();
+            return json(HttpResponseStatus.OK, DELETED);
+        }
+        if ("_search".equals(last)) {
+            return json(HttpResponseStatus.OK, NO_HITS);
+        }
+        if (segments.length == 1 && request.method() == HttpMethod.PUT) {
+            return json(HttpResponseStatus.OK, "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + segments[0] + "\"}");
+        }
+        if (segments.length == 3) {
+            indexed.increment();
+            return json(HttpResponseStatus.CREATED, item(segments[0], segments[1], segments[2]).toString());
+        }
+        return json(HttpResponseStatus.OK, "{}");
+    }
+
+    /**
+     * Acknowledges every action of a bulk request, each action line is followed by a source line except deletes.
+     */
+    private String bulk(String body) {
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.put("took", 1).put("errors", false);
+        ArrayNode items = result.putArray("items");
+        String[] lines = body.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode action;
+            try {
+                action = MAPPER.readTree(lines[i]);
+            } catch (IOException e) {
+                continue;
+            }
+            String op = action.fieldNames().hasNext() ? action.fieldNames().next() : null;
+            if (op == null) {
+                continue;
+            }
+            JsonNode meta = action.get(op);
+            ObjectNode item = item(meta.path("_index").asText(), meta.path("_type").asText("_doc"), meta.path("_id").asText());
+            item.put("status", "delete".equals(op) ? 200 : 201);
+            items.addObject().set(op, item);
+            indexed.increment();
+            if (!"delete".equals(op)) {
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    private ObjectNode item(String index, String type, String id) {
+        ObjectNode item = JsonNodeFactory.instance.objectNode();
+        item.put("_index", index).put("_type", type).put("_id", id).put("_version", 1).put("result", "created");
+        item.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+        item.put("_seq_no", seqNo.getAndIncrement()).put("_primary_term", 1);
+        return item;
+    }
+
+    @Override
+    protected FullHttpResponse fail(FullHttpRequest request) {
+        failures.increment();
+        return json(HttpResponseStatus.TOO_MANY_REQUESTS, REJECTED);
+    }
+
+    private static FullHttpResponse json(HttpResponseStatus status, String content) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(content, CharsetUtil.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        return response;
+    }
+
+    /**
+     * Returns the documents indexed or deleted by single and bulk requests.
+     */
+    long getIndexed() {
+        return indexed.sum();
+    }
+
+    long getBulks() {
+        return bulks.sum();
+    }
+
+    long getDeleted() {
+        return deleted.sum();
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+}
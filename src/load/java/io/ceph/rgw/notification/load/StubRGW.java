@@ -0,0 +1,94 @@
+package io.ceph.rgw.notification.load;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stub Rados gateway, which answers object info requests of any object with headers derived from its key,
+ * so that the user metadata of an object is stable and spread evenly over the cardinality.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+class StubRGW extends StubServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubRGW.class);
+    private static final byte[] SLOW_DOWN = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<Error><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>").getBytes(CharsetUtil.UTF_8);
+    private final int cardinality;
+    private final LongAdder requests;
+    private final LongAdder failures;
+
+    StubRGW(LoadProperties properties) {
+        super("stub-rgw", properties.getRgwPort(), properties.getRgwLatency(), properties.getRgwErrorRate());
+        this.cardinality = properties.getCardinality();
+        this.requests = new LongAdder();
+        this.failures = new LongAdder();
+    }
+
+    @Override
+    protected FullHttpResponse respond(FullHttpRequest request) {
+        requests.increment();
+        String path = new QueryStringDecoder(request.uri()).path();
+        int hash = path.hashCode() & Integer.MAX_VALUE;
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.EMPTY_BUFFER);
+        HttpHeaders headers = response.headers();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, hash % 4 == 0 ? "video/mp4" : "image/jpeg")
+                .set(HttpHeaderNames.ETAG, "\"" + Integer.toHexString(hash) + "\"")
+                .set(HttpHeaderNames.LAST_MODIFIED, httpDate(new Date()))
+                .set(HttpHeaderNames.CACHE_CONTROL, "max-age=86400")
+                .set("x-amz-request-id", "tx" + Long.toHexString(System.nanoTime()))
+                .set("x-amz-meta-camera", "camera-" + hash % cardinality)
+                .set("x-amz-meta-owner", "team-" + hash / cardinality % cardinality)
+                .set("x-amz-meta-project", "project-" + hash / cardinality / cardinality % cardinality);
+        if (request.method() == HttpMethod.HEAD) {
+            // the size of the object, which has no body in a response to head
+            headers.set(HttpHeaderNames.CONTENT_LENGTH, 1024 + hash % (4 * 1024 * 1024));
+        }
+        return response;
+    }
+
+    @Override
+    protected FullHttpResponse fail(FullHttpRequest request) {
+        requests.increment();
+        failures.increment();
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE, Unpooled.wrappedBuffer(SLOW_DOWN));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/xml");
+        return response;
+    }
+
+    private static String httpDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+}
@@ -0,0 +1,115 @@
+package io.ceph.rgw.notification.load;
+
+import io.ceph.rgw.client.util.AbstractClosable;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process http server standing in for a dependency of the notification service,
+ * which answers every request after a fixed latency and fails a ratio of them.
+ * Responses are delayed on the event loop, so that any number of requests can be pending without threads.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+abstract class StubServer extends AbstractClosable {
+    private final String name;
+    private final int port;
+    private final long latency;
+    private final double errorRate;
+    private final EventLoopGroup group;
+    private final StubHandler handler;
+    private Channel channel;
+
+    StubServer(String name, int port, long latency, double errorRate) {
+        this.name = name;
+        this.port = port;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.group = new NioEventLoopGroup(0, new DefaultThreadFactory(name));
+        this.handler = new StubHandler();
+    }
+
+    void start() throws InterruptedException {
+        this.channel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(16 * 1024 * 1024));
+                        ch.pipeline().addLast(handler);
+                    }
+                })
+                .bind("127.0.0.1", port).sync().channel();
+        getLogger().info("Stub [{}] started on port [{}].", name, port);
+    }
+
+    /**
+     * Returns the response to a request.
+     */
+    protected abstract FullHttpResponse respond(FullHttpRequest request);
+
+    /**
+     * Returns the response to a request chosen to fail.
+     */
+    protected abstract FullHttpResponse fail(FullHttpRequest request);
+
+    @Override
+    protected void doClose() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully();
+    }
+
+    @ChannelHandler.Sharable
+    private class StubHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            FullHttpResponse response = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate ? fail(request) : respond(request);
+            if (!response.headers().contains(HttpHeaderNames.CONTENT_LENGTH)) {
+                HttpUtil.setContentLength(response, response.content().readableBytes());
+            }
+            if (!keepAlive) {
+                response.headers().set(HttpHeaderNames.CONNECTION, "close");
+            }
+            // requests pipelined on a connection are answered in order, since every one is delayed alike
+            ctx.executor().schedule(() -> {
+                ctx.writeAndFlush(response);
+                if (!keepAlive) {
+                    ctx.close();
+                }
+            }, latency, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            getLogger().warn("Stub [{}] connection failed.", name, cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package io.ceph.rgw.notification.load;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringEncoder;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import org.HdrHistogram.Recorder;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Subscribers of the chunked stream, active ones consume events matching conditions taken in turn from a list,
+ * idle ones hold connections whose condition never matches.
+ * The lag of an event is measured from the event time in its freshness stamp to when its frame is read.
+ * <p>
+ * A local address is bound from 127.0.0.0/8 for every block of connections, so that a single box can open
+ * more connections than one address has ephemeral ports.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/10.
+ */
+class Subscribers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Subscribers.class);
+    private static final String IDLE_CONDITION = "['load-idle'] == 'never'";
+    private static final int CONNECTIONS_PER_ADDRESS = 20000;
+    private static final int MAX_CONNECTING = 512;
+    private static final long HIGHEST_LAG = TimeUnit.MINUTES.toMillis(10);
+    private static final long SUBSCRIBE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final AttributeKey<Boolean> SUBSCRIBED = AttributeKey.valueOf("subscribed");
+    private static final ByteBuf EVENT_TIME = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("\"event\":", CharsetUtil.US_ASCII));
+    private final LoadProperties properties;
+    private final Bootstrap bootstrap;
+    private final List<Channel> channels;
+    private final Recorder lag;
+    private final LongAdder frames;
+    private final LongAdder bytes;
+    private final LongAdder rejected;
+    private final LongAdder disconnected;
+
+    Subscribers(LoadProperties properties, EventLoopGroup group) {
+        this.properties = properties;
+        this.channels = new ArrayList<>(properties.getSubscribers() + properties.getIdleSubscribers());
+        this.lag = new Recorder(HIGHEST_LAG, 3);
+        this.frames = new LongAdder();
+        this.bytes = new LongAdder();
+        this.rejected = new LongAdder();
+        this.disconnected = new LongAdder();
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new StreamHandler());
+                    }
+                });
+    }
+
+    /**
+     * Connects the active subscribers.
+     */
+    void connectActive() throws InterruptedException {
+        List<String> conditions = properties.getConditions();
+        for (int i = 0; i < properties.getSubscribers(); i++) {
+            connect(conditions.get(i % conditions.size()));
+        }
+        await();
+    }
+
+    /**
+     * Connects the idle subscribers, a bounded number of subscriptions is in flight at a time.
+     * Returns once every subscriber has its response, so that memory sampled afterwards includes the subscriptions.
+     */
+    void connectIdle() throws InterruptedException {
+        for (int i = 0; i < properties.getIdleSubscribers(); i++) {
+            connect(IDLE_CONDITION);
+            if (i % MAX_CONNECTING == MAX_CONNECTING - 1) {
+                await();
+            }
+        }
+        await();
+    }
+
+    private void connect(String condition) {
+        int index = channels.size();
+        InetSocketAddress local = new InetSocketAddress("127.0." + (index / CONNECTIONS_PER_ADDRESS / 250) + "." + (index / CONNECTIONS_PER_ADDRESS % 250 + 2), 0);
+        ChannelFuture f = bootstrap.connect(new InetSocketAddress("127.0.0.1", properties.getHttpPort()), local);
+        Channel ch = f.channel();
+        channels.add(ch);
+        f.addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                LOGGER.warn("Failed to connect subscriber from [{}].", local, future.cause());
+                rejected.increment();
+                return;
+            }
+            QueryStringEncoder uri = new QueryStringEncoder("/subscribe");
+            uri.addParam("condition", Base64.encodeBase64String(condition.getBytes(CharsetUtil.UTF_8)));
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri.toString());
+            request.headers().set(HttpHeaderNames.HOST, "127.0.0.1:" + properties.getHttpPort());
+            ch.writeAndFlush(request);
+        });
+    }
+
+    /**
+     * Waits until every subscriber has received the response to its subscription, or is closed.
+     */
+    private void await() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SUBSCRIBE_TIMEOUT;
+        for (Channel ch : channels) {
+            while (ch.isOpen() && !Boolean.TRUE.equals(ch.attr(SUBSCRIBED).get())) {
+                if (System.currentTimeMillis() > deadline) {
+                    LOGGER.warn("Subscriptions not answered in [{}]ms.", SUBSCRIBE_TIMEOUT);
+                    return;
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the lag recorder of received events in milliseconds.
+     */
+    Recorder getLag() {
+        return lag;
+    }
+
+    long getFrames() {
+        return frames.sum();
+    }
+
+    long getBytes() {
+        return bytes.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    int getConnected() {
+        int connected = 0;
+        for (Channel ch : channels) {
+            if (ch.isActive()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    void close() {
+        channels.forEach(Channel::close);
+    }
+
+    /**
+     * Splits the stream into frames of a decimal length line, the message and a line separator,
+     * frames may span or share chunks.
+     */
+    private class StreamHandler extends SimpleChannelInboundHandler<HttpObject> {
+        private ByteBuf cumulation;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+            if (msg instanceof HttpResponse) {
+                if (((HttpResponse) msg).status().code() != HttpResponseStatus.OK.code()) {
+                    LOGGER.warn("Subscription rejected with [{}].", ((HttpResponse) msg).status());
+                    rejected.increment();
+                    ctx.close();
+                    return;
+                }
+                ctx.channel().attr(SUBSCRIBED).set(Boolean.TRUE);
+            }
+            if (!(msg instanceof HttpContent)) {
+                return;
+            }
+            ByteBuf content = ((HttpContent) msg).content();
+            if (cumulation == null) {
+                cumulation = ctx.alloc().buffer(Math.max(1024, content.readableBytes()));
+            }
+            cumulation.writeBytes(content);
+            while (read(cumulation)) {
+                // frames are consumed one by one
+            }
+            cumulation.discardSomeReadBytes();
+        }
+
+        private boolean read(ByteBuf buf) {
+            int eol = buf.indexOf(buf.readerIndex(), buf.writerIndex(), (byte) '\n');
+            if (eol < 0) {
+                return false;
+            }
+            int length = 0;
+            for (int i = buf.readerIndex(); i < eol; i++) {
+                byte b = buf.getByte(i);
+                if (b >= '0' && b <= '9') {
+                    length = length * 10 + b - '0';
+                }
+            }
+            int end = eol + 1 + length + 2;
+            if (buf.writerIndex() < end) {
+                return false;
+            }
+            // empty frames are heartbeats
+            if (length > 0) {
+                record(buf.slice(eol + 1, length));
+                frames.increment();
+            }
+            bytes.add(end - buf.readerIndex());
+            buf.readerIndex(end);
+            return true;
+        }
+
+        private void record(ByteBuf message) {
+            int index = ByteBufUtil.indexOf(EVENT_TIME, message);
+            if (index < 0) {
+                return;
+            }
+            long eventTime = 0;
+            for (int i = index + EVENT_TIME.readableBytes(); i < message.writerIndex(); i++) {
+                byte b = message.getByte(i);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                eventTime = eventTime * 10 + b - '0';
+            }
+            lag.recordValue(Math.max(0, Math.min(System.currentTimeMillis() - eventTime, HIGHEST_LAG)));
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            disconnected.increment();
+            if (cumulation != null) {
+                cumulation.release();
+                cumulation = null;
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.warn("Subscriber connection failed.", cause);
+            ctx.close();
+        }
+    }
+}
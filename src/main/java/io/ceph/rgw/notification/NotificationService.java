@@ -3,8 +3,11 @@ package io.ceph.rgw.notification;
 import io.ceph.rgw.client.Clients;
 import io.ceph.rgw.client.config.Configuration;
 import io.ceph.rgw.client.config.RGWClientProperties;
+import io.ceph.rgw.notification.cluster.Cluster;
 import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.ceph.rgw.notification.eventlog.EventLog;
 import io.ceph.rgw.notification.netty.HttpServer;
+import io.ceph.rgw.notification.reconcile.Reconciler;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,14 +43,32 @@ public class NotificationService {
         try {
             Clients clients = Clients.create(RGWClientProperties.loadFromConfig(config));
             ESClient esClient = new ESClient(config.getSubConfig("notification.es"));
-            HttpServer server = new HttpServer(config.getSubConfig("notification.http"), clients.getObject(), esClient);
+            Configuration logConfig = config.getSubConfig("notification.log");
+            EventLog eventLog = StringUtils.isBlank(logConfig.getString("dir")) ? null : new EventLog(logConfig);
+            Configuration clusterConfig = config.getSubConfig("notification.cluster");
+            Cluster cluster = clusterConfig.getStrings("peers") == null ? null : new Cluster(clusterConfig);
+            Configuration reconcileConfig = config.getSubConfig("notification.reconcile");
+            Reconciler reconciler = StringUtils.isBlank(reconcileConfig.getString("checkpointDir")) ? null : new Reconciler(reconcileConfig, clients.getObject(), esClient);
+            HttpServer server = new HttpServer(config.getSubConfig("notification.http"), clients.getObject(), esClient, eventLog, cluster, reconciler);
             setDefaultUncaughtExceptionHandler();
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 server.close();
+                if (reconciler != null) {
+                    reconciler.close();
+                }
+                if (cluster != null) {
+                    cluster.close();
+                }
+                if (eventLog != null) {
+                    eventLog.close();
+                }
                 esClient.close();
                 LOGGER.info("Notification service shutdown.");
             }));
             server.start();
+            if (cluster != null) {
+                cluster.start();
+            }
         } catch (Exception e) {
             LOGGER.error("Failed to start service.", e);
             System.exit(1);
@@ -0,0 +1,276 @@
+package io.ceph.rgw.notification.cluster;
+
+import io.ceph.rgw.client.config.Configuration;
+import io.ceph.rgw.client.util.AbstractClosable;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A static mesh of notification nodes.
+ * Every node forwards the events published to it by Rados gateway to all of its peers,
+ * and publishes events received from peers to its own subscribers without forwarding them again.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/1.
+ */
+public class Cluster extends AbstractClosable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Cluster.class);
+    private final ClusterProperties properties;
+    private final EventLoopGroup group;
+    private final List<PeerLink> links;
+    private final ConcurrentMap<String, InboundStats> inbound;
+    private final Map<String, Integer> routes;
+    private final ChannelGroup peers;
+    private volatile Consumer<PeerEvent> listener;
+    private volatile Channel serverChannel;
+
+    public Cluster(Configuration config) {
+        this.properties = new ClusterProperties(config);
+        this.group = new NioEventLoopGroup(properties.getThreads(), new DefaultThreadFactory("notification-cluster"));
+        List<PeerLink> links = new ArrayList<>(properties.getPeers().size());
+        for (String peer : properties.getPeers()) {
+            links.add(new PeerLink(peer.trim(), group, properties));
+        }
+        this.links = Collections.unmodifiableList(links);
+        this.inbound = new ConcurrentHashMap<>();
+        this.routes = new HashMap<>();
+        this.peers = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    }
+
+    /**
+     * Sets the listener of events received from peers.
+     */
+    public void listen(Consumer<PeerEvent> listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Listens for peer connections and connects to the peers.
+     */
+    public void start() throws InterruptedException {
+        this.serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .childOption(ChannelOption.SO_KEEPALIVE, Boolean.TRUE)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(properties.getMaxFrameSize(), 0, 4, 0, 4));
+                        ch.pipeline().addLast(new PeerHandler());
+                    }
+                })
+                .bind(properties.getHost(), properties.getPort()).sync().channel();
+        links.forEach(PeerLink::connect);
+        LOGGER.info("Cluster started with [{}].", properties);
+    }
+
+    /**
+     * Forwards an event published to this node to every peer whose subscribers could match it.
+     */
+    public void broadcast(PeerEvent event) {
+        ByteBuf frame = null;
+        try {
+            for (PeerLink link : links) {
+                if (!link.routes(event.getMetadata())) {
+                    continue;
+                }
+                if (frame == null) {
+                    frame = event.encode(PooledByteBufAllocator.DEFAULT);
+                }
+                link.send(frame.retainedDuplicate());
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Adds the routes of a new subscriber, peers are sent the routes this node did not have.
+     */
+    public void subscribed(Collection<String> subscriberRoutes) {
+        synchronized (routes) {
+            List<String> added = new ArrayList<>();
+            for (String route : subscriberRoutes) {
+                if (routes.merge(route, 1, Integer::sum) == 1) {
+                    added.add(route);
+                }
+            }
+            send(Routes.ADD, added);
+        }
+    }
+
+    /**
+     * Removes the routes of a closed subscriber once the route retention passes, peers are sent the routes
+     * this node no longer has. Until then, events the subscriber could match still come to the replay buffer,
+     * so that it can resume from its last sequence.
+     */
+    public void unsubscribed(Collection<String> subscriberRoutes) {
+        if (properties.getRouteRetention() > 0 && !group.isShuttingDown()) {
+            group.schedule(() -> removeRoutes(subscriberRoutes), properties.getRouteRetention(), TimeUnit.SECONDS);
+        } else {
+            removeRoutes(subscriberRoutes);
+        }
+    }
+
+    private void removeRoutes(Collection<String> subscriberRoutes) {
+        synchronized (routes) {
+            List<String> removed = new ArrayList<>();
+            for (String route : subscriberRoutes) {
+                if (routes.computeIfPresent(route, (r, n) -> n == 1 ? null : n - 1) == null) {
+                    removed.add(route);
+                }
+            }
+            send(Routes.REMOVE, removed);
+        }
+    }
+
+    private void send(byte op, Collection<String> changed) {
+        if (changed.isEmpty() || peers.isEmpty()) {
+            return;
+        }
+        ByteBuf frame = Routes.encode(PooledByteBufAllocator.DEFAULT, op, changed);
+        peers.writeAndFlush(frame);
+    }
+
+    /**
+     * Returns throughput and lag of the outbound links by peer, and of the inbound connections by remote address.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> outbound = new LinkedHashMap<>();
+        for (PeerLink link : links) {
+            outbound.put(link.toString(), link.stats());
+        }
+        Map<String, Object> in = new LinkedHashMap<>();
+        inbound.forEach((address, stats) -> in.put(address, stats.toMap()));
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("outbound", outbound);
+        stats.put("inbound", in);
+        return stats;
+    }
+
+    @Override
+    protected void doClose() {
+        links.forEach(PeerLink::close);
+        if (serverChannel != null) {
+            try {
+                serverChannel.close().sync();
+            } catch (Throwable throwable) {
+                LOGGER.error("Failed to close cluster server channel.", throwable);
+            }
+        }
+        try {
+            group.shutdownGracefully().sync();
+        } catch (Throwable throwable) {
+            LOGGER.error("Failed to close cluster group.", throwable);
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    private class PeerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private InboundStats stats;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            String address = String.valueOf(ctx.channel().remoteAddress());
+            LOGGER.info("Accepted peer connection from [{}].", address);
+            stats = inbound.computeIfAbsent(address, a -> new InboundStats());
+            // the peer routes by the full set first, changes are sent after it in order
+            synchronized (routes) {
+                ctx.writeAndFlush(Routes.encode(ctx.alloc(), Routes.RESET, new ArrayList<>(routes.keySet())));
+                peers.add(ctx.channel());
+            }
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            int bytes = frame.readableBytes();
+            PeerEvent event = PeerEvent.decode(frame);
+            stats.received(bytes, System.currentTimeMillis() - event.getPublishTime());
+            Consumer<PeerEvent> listener = Cluster.this.listener;
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.accept(event);
+            } catch (Exception e) {
+                LOGGER.error("Failed to publish peer event [{}].", event, e);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            inbound.remove(String.valueOf(ctx.channel().remoteAddress()));
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Peer connection [{}] failed.", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    private static class InboundStats {
+        private final LongAdder receivedEvents = new LongAdder();
+        private final LongAdder receivedBytes = new LongAdder();
+        private final AtomicLong lastLagMs = new AtomicLong();
+        private final AtomicLong maxLagMs = new AtomicLong();
+
+        void received(int bytes, long lagMs) {
+            receivedEvents.increment();
+            receivedBytes.add(bytes);
+            lastLagMs.set(lagMs);
+            maxLagMs.accumulateAndGet(lagMs, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("receivedEvents", receivedEvents.sum());
+            map.put("receivedBytes", receivedBytes.sum());
+            // measured against the publish time of the origin node, so it includes clock skew between the nodes
+            map.put("lastLagMs", lastLagMs.get());
+            map.put("maxLagMs", maxLagMs.get());
+            return map;
+        }
+    }
+}
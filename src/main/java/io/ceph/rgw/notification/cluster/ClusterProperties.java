@@ -0,0 +1,91 @@
+package io.ceph.rgw.notification.cluster;
+
+import io.ceph.rgw.client.config.Configuration;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Properties of {@link Cluster}.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/1.
+ */
+public class ClusterProperties {
+    private final String host;
+    private final Integer port;
+    private final List<String> peers;
+    private final Integer threads;
+    private final Integer reconnectInterval;
+    private final Integer linkBufferBudget;
+    private final Integer maxFrameSize;
+    private final Integer routeRetention;
+
+    public ClusterProperties(Configuration config) {
+        this.host = config.getString("host", "0.0.0.0");
+        this.port = config.getInteger("port", 8081);
+        List<String> peers = config.getStrings("peers");
+        this.peers = peers == null ? Collections.emptyList() : peers;
+        this.threads = config.getInteger("threads", 2);
+        this.reconnectInterval = config.getInteger("reconnectInterval", 1000);
+        this.linkBufferBudget = config.getInteger("linkBufferBudget", 16 * 1024 * 1024);
+        this.maxFrameSize = config.getInteger("maxFrameSize", 16 * 1024 * 1024);
+        this.routeRetention = config.getInteger("routeRetention", 600);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public Integer getPort() {
+        return port;
+    }
+
+    /**
+     * Returns host:port of the other nodes, not including this one.
+     */
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public Integer getReconnectInterval() {
+        return reconnectInterval;
+    }
+
+    /**
+     * Returns the maximum bytes pending on a peer link, events are dropped for the peer beyond it.
+     */
+    public Integer getLinkBufferBudget() {
+        return linkBufferBudget;
+    }
+
+    public Integer getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Returns the seconds the routes of a closed subscriber are kept, so that the events it misses until it resumes
+     * keep coming to the replay buffer, 0 to remove them at once.
+     */
+    public Integer getRouteRetention() {
+        return routeRetention;
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterProperties{" +
+                "host='" + host + '\'' +
+                ", port=" + port +
+                ", peers=" + peers +
+                ", threads=" + threads +
+                ", reconnectInterval=" + reconnectInterval +
+                ", linkBufferBudget=" + linkBufferBudget +
+                ", maxFrameSize=" + maxFrameSize +
+                ", routeRetention=" + routeRetention +
+                '}';
+    }
+}
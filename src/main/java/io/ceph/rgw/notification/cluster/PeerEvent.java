@@ -0,0 +1,125 @@
+package io.ceph.rgw.notification.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.CharsetUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An event forwarded between nodes, made of the object id, the metadata to match subscriptions against,
+ * the serialized object info, and the time of the event, so that freshness stamps on every node start from the origin.
+ * An event is encoded once and the same frame is written to every peer.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/1.
+ */
+public final class PeerEvent {
+    private final String id;
+    private final Map<String, String> metadata;
+    private final byte[] body;
+    private final long eventTime;
+    private final long publishTime;
+
+    public PeerEvent(String id, Map<String, String> metadata, byte[] body, long eventTime, long publishTime) {
+        this.id = id;
+        this.metadata = metadata;
+        this.body = body;
+        this.eventTime = eventTime;
+        this.publishTime = publishTime;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the milliseconds of the event as notified to the origin node, or negative if unknown.
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    /**
+     * Returns the milliseconds when the origin node published the event.
+     */
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * Encodes the event into a frame, prefixed with the length of the rest.
+     */
+    ByteBuf encode(ByteBufAllocator alloc) {
+        ByteBuf buf = alloc.buffer(64 + body.length);
+        buf.writeInt(0);
+        buf.writeLong(eventTime);
+        buf.writeLong(publishTime);
+        writeString(buf, id);
+        buf.writeInt(metadata.size());
+        for (Map.Entry<String, String> e : metadata.entrySet()) {
+            writeString(buf, e.getKey());
+            writeString(buf, e.getValue());
+        }
+        buf.writeInt(body.length);
+        buf.writeBytes(body);
+        buf.setInt(0, buf.readableBytes() - 4);
+        return buf;
+    }
+
+    /**
+     * Decodes an event from a frame without the length prefix.
+     */
+    static PeerEvent decode(ByteBuf buf) {
+        long eventTime = buf.readLong();
+        long publishTime = buf.readLong();
+        String id = readString(buf);
+        int size = buf.readInt();
+        Map<String, String> metadata = new HashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            metadata.put(readString(buf), readString(buf));
+        }
+        byte[] body = new byte[buf.readInt()];
+        buf.readBytes(body);
+        return new PeerEvent(id, metadata, body, eventTime, publishTime);
+    }
+
+    static void writeString(ByteBuf buf, String s) {
+        if (s == null) {
+            buf.writeInt(-1);
+            return;
+        }
+        int index = buf.writerIndex();
+        buf.writeInt(0);
+        int length = buf.writeCharSequence(s, CharsetUtil.UTF_8);
+        buf.setInt(index, length);
+    }
+
+    static String readString(ByteBuf buf) {
+        int length = buf.readInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = buf.toString(buf.readerIndex(), length, CharsetUtil.UTF_8);
+        buf.skipBytes(length);
+        return s;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerEvent{" +
+                "id='" + id + '\'' +
+                ", eventTime=" + eventTime +
+                ", publishTime=" + publishTime +
+                '}';
+    }
+}
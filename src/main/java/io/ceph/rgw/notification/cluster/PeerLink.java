@@ -0,0 +1,192 @@
+package io.ceph.rgw.notification.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent connection to a peer, reconnected until closed.
+ * Frames are written as soon as they are sent and flushed together by the event loop,
+ * so that events published in a burst reach the peer in a few large writes.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/1.
+ */
+class PeerLink {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerLink.class);
+    private final String peer;
+    private final Bootstrap bootstrap;
+    private final int reconnectInterval;
+    private final LongAdder sentEvents;
+    private final LongAdder sentBytes;
+    private final LongAdder droppedEvents;
+    private final LongAdder skippedEvents;
+    private final RouteTable routes;
+    private volatile boolean routed;
+    private volatile Channel channel;
+    private volatile boolean closed;
+
+    PeerLink(String peer, EventLoopGroup group, ClusterProperties properties) {
+        this.peer = peer;
+        String[] hostPort = peer.split(":");
+        if (hostPort.length != 2) {
+            throw new IllegalArgumentException("cannot parse peer: " + peer);
+        }
+        this.reconnectInterval = properties.getReconnectInterval();
+        this.sentEvents = new LongAdder();
+        this.sentBytes = new LongAdder();
+        this.droppedEvents = new LongAdder();
+        this.skippedEvents = new LongAdder();
+        this.routes = new RouteTable();
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .option(ChannelOption.SO_KEEPALIVE, Boolean.TRUE)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(properties.getLinkBufferBudget() / 2, properties.getLinkBufferBudget()))
+                .remoteAddress(hostPort[0], Integer.parseInt(hostPort[1]))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(properties.getMaxFrameSize(), 0, 4, 0, 4));
+                        ch.pipeline().addLast(new RoutesHandler());
+                    }
+                });
+    }
+
+    void connect() {
+        if (closed) {
+            return;
+        }
+        bootstrap.connect().addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                LOGGER.info("Connected to peer [{}].", peer);
+                channel = f.channel();
+                channel.closeFuture().addListener(c -> {
+                    LOGGER.warn("Disconnected from peer [{}].", peer);
+                    channel = null;
+                    routed = false;
+                    scheduleConnect();
+                });
+            } else {
+                LOGGER.debug("Failed to connect to peer [{}].", peer, f.cause());
+                scheduleConnect();
+            }
+        });
+    }
+
+    private void scheduleConnect() {
+        if (!closed) {
+            bootstrap.config().group().schedule(this::connect, reconnectInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns whether the peer has subscribers that could match an event of the metadata,
+     * which is assumed until the peer sends its routes.
+     */
+    boolean routes(Map<String, String> metadata) {
+        if (routed && !routes.matches(metadata)) {
+            skippedEvents.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a frame and takes over the ownership of it, the frame is dropped if the peer is
+     * disconnected or too far behind.
+     */
+    void send(ByteBuf frame) {
+        Channel ch = channel;
+        if (ch == null || !ch.isActive() || !ch.isWritable()) {
+            droppedEvents.increment();
+            frame.release();
+            return;
+        }
+        int bytes = frame.readableBytes();
+        ch.writeAndFlush(frame, ch.voidPromise());
+        sentEvents.increment();
+        sentBytes.add(bytes);
+    }
+
+    void close() {
+        closed = true;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    Map<String, Object> stats() {
+        Channel ch = channel;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connected", ch != null && ch.isActive());
+        stats.put("sentEvents", sentEvents.sum());
+        stats.put("sentBytes", sentBytes.sum());
+        stats.put("droppedEvents", droppedEvents.sum());
+        stats.put("skippedEvents", skippedEvents.sum());
+        stats.put("routes", routed ? routes.size() : -1);
+        // bytes written but not yet taken by the socket, the lag of the link
+        stats.put("pendingBytes", ch == null || ch.unsafe().outboundBuffer() == null ? 0 : ch.unsafe().outboundBuffer().totalPendingWriteBytes());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return peer;
+    }
+
+    /**
+     * Applies the routes sent by the peer, on the link's event loop.
+     */
+    private class RoutesHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte op = frame.readByte();
+            List<String> received = Routes.decode(frame);
+            switch (op) {
+                case Routes.RESET:
+                    routes.clear();
+                    received.forEach(routes::add);
+                    routed = true;
+                    LOGGER.info("Received [{}] routes from peer [{}].", received.size(), peer);
+                    break;
+                case Routes.ADD:
+                    received.forEach(routes::add);
+                    break;
+                case Routes.REMOVE:
+                    received.forEach(routes::remove);
+                    break;
+                default:
+                    LOGGER.warn("Unknown routes operation [{}] from peer [{}].", op, peer);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Peer link [{}] failed.", peer, cause);
+            ctx.close();
+        }
+    }
+}
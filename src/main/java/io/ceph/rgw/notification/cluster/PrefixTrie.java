@@ -0,0 +1,128 @@
+package io.ceph.rgw.notification.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of prefixes, looked up by walking a value char by char without allocating.
+ * Changed by a single writer, while readers walk it concurrently: the children of a node are replaced as a whole.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+final class PrefixTrie {
+    private final Node root = new Node();
+
+    void add(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrAdd(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    void remove(String prefix) {
+        List<Node> path = new ArrayList<>(prefix.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.get(prefix.charAt(i));
+            if (node == null) {
+                return;
+            }
+            path.add(node);
+        }
+        node.terminal = false;
+        // prunes the nodes left without prefixes below them
+        for (int i = prefix.length(); i > 0 && path.get(i).isEmpty(); i--) {
+            path.get(i - 1).remove(prefix.charAt(i - 1));
+        }
+    }
+
+    boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    /**
+     * Returns whether any of the prefixes is a prefix of the value.
+     */
+    boolean matches(String value) {
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i == value.length()) {
+                return false;
+            }
+            node = node.get(value.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    private static final class Node {
+        private static final Children NO_CHILDREN = new Children(new char[0], new Node[0]);
+        private volatile boolean terminal;
+        private volatile Children children = NO_CHILDREN;
+
+        Node get(char c) {
+            Children children = this.children;
+            int i = Arrays.binarySearch(children.chars, c);
+            return i < 0 ? null : children.nodes[i];
+        }
+
+        Node getOrAdd(char c) {
+            Children children = this.children;
+            int i = Arrays.binarySearch(children.chars, c);
+            if (i >= 0) {
+                return children.nodes[i];
+            }
+            i = -i - 1;
+            int size = children.chars.length;
+            char[] chars = new char[size + 1];
+            Node[] nodes = new Node[size + 1];
+            System.arraycopy(children.chars, 0, chars, 0, i);
+            System.arraycopy(children.nodes, 0, nodes, 0, i);
+            System.arraycopy(children.chars, i, chars, i + 1, size - i);
+            System.arraycopy(children.nodes, i, nodes, i + 1, size - i);
+            Node node = new Node();
+            chars[i] = c;
+            nodes[i] = node;
+            this.children = new Children(chars, nodes);
+            return node;
+        }
+
+        void remove(char c) {
+            Children children = this.children;
+            int i = Arrays.binarySearch(children.chars, c);
+            if (i < 0) {
+                return;
+            }
+            int size = children.chars.length;
+            char[] chars = new char[size - 1];
+            Node[] nodes = new Node[size - 1];
+            System.arraycopy(children.chars, 0, chars, 0, i);
+            System.arraycopy(children.nodes, 0, nodes, 0, i);
+            System.arraycopy(children.chars, i + 1, chars, i, size - i - 1);
+            System.arraycopy(children.nodes, i + 1, nodes, i, size - i - 1);
+            this.children = new Children(chars, nodes);
+        }
+
+        boolean isEmpty() {
+            return !terminal && children.chars.length == 0;
+        }
+    }
+
+    private static final class Children {
+        private final char[] chars;
+        private final Node[] nodes;
+
+        Children(char[] chars, Node[] nodes) {
+            this.chars = chars;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.ceph.rgw.notification.cluster;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The routes received from a peer, indexed by metadata key, so that an event is matched against them
+ * by looking up its values as they are, without building route strings.
+ * Changed by the link's event loop, while publishers match events concurrently.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+final class RouteTable {
+    private final Set<String> routes;
+    private final ConcurrentMap<String, Set<String>> equal;
+    private final ConcurrentMap<String, PrefixTrie> prefixes;
+    // keys of the equal and prefix routes, replaced as a whole
+    private volatile String[] keys;
+    private volatile boolean wildcard;
+
+    RouteTable() {
+        this.routes = ConcurrentHashMap.newKeySet();
+        this.equal = new ConcurrentHashMap<>();
+        this.prefixes = new ConcurrentHashMap<>();
+        this.keys = new String[0];
+    }
+
+    void add(String route) {
+        if (!routes.add(route)) {
+            return;
+        }
+        if (Routes.WILDCARD.equals(route)) {
+            wildcard = true;
+            return;
+        }
+        int separator = route.indexOf('\0');
+        if (separator < 1) {
+            return;
+        }
+        String key = route.substring(1, separator);
+        String value = route.substring(separator + 1);
+        if (route.charAt(0) == Routes.EQUAL) {
+            equal.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(value);
+        } else if (route.charAt(0) == Routes.PREFIX) {
+            prefixes.computeIfAbsent(key, k -> new PrefixTrie()).add(value);
+        }
+        updateKeys();
+    }
+
+    void remove(String route) {
+        if (!routes.remove(route)) {
+            return;
+        }
+        if (Routes.WILDCARD.equals(route)) {
+            wildcard = false;
+            return;
+        }
+        int separator = route.indexOf('\0');
+        if (separator < 1) {
+            return;
+        }
+        String key = route.substring(1, separator);
+        String value = route.substring(separator + 1);
+        if (route.charAt(0) == Routes.EQUAL) {
+            Set<String> values = equal.get(key);
+            if (values != null && values.remove(value) && values.isEmpty()) {
+                equal.remove(key);
+            }
+        } else if (route.charAt(0) == Routes.PREFIX) {
+            PrefixTrie trie = prefixes.get(key);
+            if (trie != null) {
+                trie.remove(value);
+                if (trie.isEmpty()) {
+                    prefixes.remove(key);
+                }
+            }
+        }
+        updateKeys();
+    }
+
+    void clear() {
+        wildcard = false;
+        routes.clear();
+        equal.clear();
+        prefixes.clear();
+        keys = new String[0];
+    }
+
+    int size() {
+        return routes.size();
+    }
+
+    private void updateKeys() {
+        Set<String> keys = new HashSet<>();
+        keys.addAll(equal.keySet());
+        keys.addAll(prefixes.keySet());
+        if (keys.size() != this.keys.length || !keys.containsAll(Arrays.asList(this.keys))) {
+            this.keys = keys.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Returns whether an event of the metadata could match any of the routes.
+     */
+    boolean matches(Map<String, String> metadata) {
+        if (wildcard) {
+            return true;
+        }
+        for (String key : keys) {
+            String value = metadata.get(key);
+            if (value == null) {
+                continue;
+            }
+            Set<String> values = equal.get(key);
+            if (values != null && values.contains(value)) {
+                return true;
+            }
+            PrefixTrie trie = prefixes.get(key);
+            if (trie != null && trie.matches(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
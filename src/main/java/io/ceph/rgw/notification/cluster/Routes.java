@@ -0,0 +1,86 @@
+package io.ceph.rgw.notification.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Routes summarize the subscriptions of a node, so that a peer forwards only the events they could match.
+ * A subscription has one or more routes, at least one of which must hold for an event it matches:
+ * an equality of a metadata value, a prefix of a metadata value, or the wildcard if its condition cannot be summarized.
+ * <p>
+ * Nodes send their peers the routes gained and lost as subscribers come and go, with counts kept locally,
+ * and all routes whenever a peer connects.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/3.
+ */
+public final class Routes {
+    public static final String WILDCARD = "*";
+    static final char EQUAL = '=';
+    static final char PREFIX = '^';
+    static final byte RESET = 0;
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    private static final int MAX_PREFIX_LENGTH = 64;
+
+    private Routes() {
+    }
+
+    public static String equal(String key, String value) {
+        return EQUAL + key + '\0' + value;
+    }
+
+    /**
+     * Returns the route of a prefix, a long prefix is cut, which is still necessary for a match.
+     */
+    public static String prefix(String key, String prefix) {
+        return PREFIX + key + '\0' + (prefix.length() > MAX_PREFIX_LENGTH ? prefix.substring(0, MAX_PREFIX_LENGTH) : prefix);
+    }
+
+    public static boolean isEqual(String route) {
+        return route.length() > 1 && route.charAt(0) == EQUAL;
+    }
+
+    public static boolean isPrefix(String route) {
+        return route.length() > 1 && route.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Returns the metadata key of an equality or prefix route.
+     */
+    public static String key(String route) {
+        return route.substring(1, route.indexOf('\0'));
+    }
+
+    /**
+     * Returns the metadata value of an equality route, or the prefix of a prefix route.
+     */
+    public static String value(String route) {
+        return route.substring(route.indexOf('\0') + 1);
+    }
+
+    static ByteBuf encode(ByteBufAllocator alloc, byte op, Collection<String> routes) {
+        ByteBuf buf = alloc.buffer();
+        buf.writeInt(0);
+        buf.writeByte(op);
+        buf.writeInt(routes.size());
+        for (String route : routes) {
+            PeerEvent.writeString(buf, route);
+        }
+        buf.setInt(0, buf.readableBytes() - 4);
+        return buf;
+    }
+
+    static List<String> decode(ByteBuf buf) {
+        int size = buf.readInt();
+        List<String> routes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            routes.add(PeerEvent.readString(buf));
+        }
+        return routes;
+    }
+}
@@ -2,17 +2,30 @@ package io.ceph.rgw.notification.elasticsearch;
 
 import io.ceph.rgw.client.config.Configuration;
 import io.ceph.rgw.client.util.AbstractClosable;
+import io.ceph.rgw.notification.cluster.Routes;
+import io.ceph.rgw.notification.metrics.EventTimeline;
+import io.ceph.rgw.notification.metrics.FlightEvents;
+import io.ceph.rgw.notification.metrics.IndexRequestEvent;
+import io.ceph.rgw.notification.metrics.Metrics;
+import io.ceph.rgw.notification.model.Event;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.lucene.search.join.ScoreMode;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
@@ -24,9 +37,16 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +76,8 @@ import java.util.regex.Pattern;
  */
 public class ESClient extends AbstractClosable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ESClient.class);
+    // replaces the metadata as a whole, a partial document would merge removed metadata keys back
+    private static final String UPDATE_META = "if (params.meta == null) { ctx._source.remove('meta') } else { ctx._source.meta = params.meta }";
     private final String index;
     private final RestHighLevelClient client;
 
@@ -79,7 +101,11 @@ public class ESClient extends AbstractClosable {
             }
             if ("https".equalsIgnoreCase(properties.getScheme())) {
                 try {
-                    b.setSSLContext(buildSSLContext(properties.getKeyPath(), properties.getCertPath(), properties.getCaPath(), properties.getKeyPass()));
+                    SSLContext context = buildSSLContext(properties.getKeyPath(), properties.getCertPath(), properties.getCaPath(), properties.getKeyPass());
+                    // sessions are resumed on reconnects, rather than negotiated by full handshakes
+                    context.getClientSessionContext().setSessionCacheSize(properties.getSslSessionCacheSize());
+                    context.getClientSessionContext().setSessionTimeout(properties.getSslSessionTimeout());
+                    b.setSSLContext(context);
                 } catch (Exception e) {
                     throw new IllegalArgumentException(e);
                 }
@@ -213,8 +239,6 @@ public class ESClient extends AbstractClosable {
             context.init(keyManagerFactory == null ? null : keyManagerFactory.getKeyManagers(),
                     trustManagerFactory == null ? null : trustManagerFactory.getTrustManagers(),
                     null);
-            context.getClientSessionContext().setSessionCacheSize(0);
-            context.getClientSessionContext().setSessionTimeout(0);
             return context;
         } catch (SSLException e) {
             throw e;
@@ -468,44 +492,178 @@ public class ESClient extends AbstractClosable {
         return false;
     }
 
-    public void insert(String id, byte[] source) {
+    /**
+     * Indexes a document asynchronously, the timeline of the event is stamped once it is acknowledged.
+     */
+    public void insert(String id, byte[] source, EventTimeline timeline) {
         IndexRequest request = new IndexRequest(index);
         request.source(source, XContentType.JSON)
                 .type("_doc")
                 .id(id)
                 .opType(DocWriteRequest.OpType.INDEX);
+        long start = System.nanoTime();
+        Metrics.ES_REQUESTS_IN_FLIGHT.increment();
+        IndexRequestEvent flight = FlightEvents.AVAILABLE ? IndexRequestEvent.start(Event.OBJECT_CREATE.name(), timeline.getBucket(), timeline.getKey(), source.length) : null;
         client.indexAsync(request, RequestOptions.DEFAULT, new ActionListener<IndexResponse>() {
             @Override
             public void onResponse(IndexResponse response) {
+                Metrics.ES_REQUESTS_IN_FLIGHT.decrement();
+                Metrics.ES_INDEX.recordSince(start);
+                if (flight != null) {
+                    flight.complete(true);
+                }
+                timeline.indexed();
                 LOGGER.debug("Insert response: [{}].", response);
             }
 
             @Override
             public void onFailure(Exception e) {
+                Metrics.ES_REQUESTS_IN_FLIGHT.decrement();
+                if (flight != null) {
+                    flight.complete(false);
+                }
+                timeline.failed();
                 LOGGER.error("Failed to execute insert [{}].", request, e);
             }
         });
     }
 
-    public void delete(String bucket, String key) {
+    /**
+     * Deletes the document of an object asynchronously, the timeline of the event is stamped once it is acknowledged.
+     */
+    public void delete(String bucket, String key, EventTimeline timeline) {
         DeleteByQueryRequest request = new DeleteByQueryRequest();
         request.indices(index);
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
         queryBuilder.must(QueryBuilders.termQuery("bucket", bucket)).must(QueryBuilders.termQuery("name", key));
         request.setQuery(queryBuilder).setSize(1);
+        long start = System.nanoTime();
+        Metrics.ES_REQUESTS_IN_FLIGHT.increment();
+        IndexRequestEvent flight = FlightEvents.AVAILABLE ? IndexRequestEvent.start(Event.OBJECT_DELETE.name(), bucket, key, 0) : null;
         client.deleteByQueryAsync(request, RequestOptions.DEFAULT, new ActionListener<BulkByScrollResponse>() {
             @Override
             public void onResponse(BulkByScrollResponse response) {
+                Metrics.ES_REQUESTS_IN_FLIGHT.decrement();
+                Metrics.ES_DELETE.recordSince(start);
+                if (flight != null) {
+                    flight.complete(true);
+                }
+                timeline.indexed();
                 LOGGER.debug("Delete response: [{}].", response);
             }
 
             @Override
             public void onFailure(Exception e) {
+                Metrics.ES_REQUESTS_IN_FLIGHT.decrement();
+                if (flight != null) {
+                    flight.complete(false);
+                }
+                timeline.failed();
                 LOGGER.error("Failed to execute delete [{}].", request, e);
             }
         });
     }
 
+    /**
+     * Searches a page of the documents matching any of the routes ordered by bucket and name, starting after the sort values
+     * of the last hit of the previous page, or from the first document if search after is null.
+     * Equality and prefix routes are filtered on the metadata, all documents are searched if any route is the wildcard.
+     * Pages are consistent with concurrent writes as of each search, not as of the first one.
+     */
+    public void scan(Collection<String> routes, Object[] searchAfter, int size, ActionListener<SearchResponse> listener) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(routesQuery(routes))
+                .size(size)
+                .sort("bucket.keyword", SortOrder.ASC)
+                .sort("name.keyword", SortOrder.ASC)
+                .trackTotalHits(false);
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+        SearchRequest request = new SearchRequest(index).source(source);
+        client.searchAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    private static QueryBuilder routesQuery(Collection<String> routes) {
+        if (routes.isEmpty() || routes.contains(Routes.WILDCARD)) {
+            return QueryBuilders.matchAllQuery();
+        }
+        BoolQueryBuilder any = QueryBuilders.boolQuery().minimumShouldMatch(1);
+        for (String route : routes) {
+            QueryBuilder query;
+            if (Routes.isEqual(route)) {
+                query = QueryBuilders.termQuery("meta." + Routes.key(route) + ".keyword", Routes.value(route));
+            } else if (Routes.isPrefix(route)) {
+                query = QueryBuilders.prefixQuery("meta." + Routes.key(route) + ".keyword", Routes.value(route));
+            } else {
+                return QueryBuilders.matchAllQuery();
+            }
+            any.should(QueryBuilders.nestedQuery("meta", query, ScoreMode.None));
+        }
+        return QueryBuilders.boolQuery().filter(any);
+    }
+
+    /**
+     * Searches a page of the documents of a bucket whose names are after one name and up to another, ordered by name,
+     * starting after the sort values of the last hit of the previous page, or from the first document if search after is null.
+     * A bound is open if it is null. Hits have their sequence numbers, to update or delete them only if unchanged since.
+     */
+    public void scan(String bucket, String after, String upTo, Object[] searchAfter, int size, ActionListener<SearchResponse> listener) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("bucket.keyword", bucket));
+        if (after != null || upTo != null) {
+            RangeQueryBuilder range = QueryBuilders.rangeQuery("name.keyword");
+            if (after != null) {
+                range.gt(after);
+            }
+            if (upTo != null) {
+                range.lte(upTo);
+            }
+            query.filter(range);
+        }
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(query)
+                .size(size)
+                .sort("name.keyword", SortOrder.ASC)
+                .seqNoAndPrimaryTerm(true)
+                .trackTotalHits(false);
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+        SearchRequest request = new SearchRequest(index).source(source);
+        client.searchAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    /**
+     * Creates, updates the metadata of, and deletes documents in one bulk request.
+     * Documents are created only if absent, updated and deleted only if unchanged since their hits were searched,
+     * so that documents indexed by events meanwhile fail with conflicts instead of being overwritten.
+     */
+    public void bulk(Map<String, byte[]> creates, Map<SearchHit, Map<String, Object>> metas, Collection<SearchHit> deletes, ActionListener<BulkResponse> listener) {
+        BulkRequest request = new BulkRequest();
+        for (Map.Entry<String, byte[]> e : creates.entrySet()) {
+            request.add(new IndexRequest(index)
+                    .type("_doc")
+                    .id(e.getKey())
+                    .source(e.getValue(), XContentType.JSON)
+                    .opType(DocWriteRequest.OpType.CREATE));
+        }
+        for (Map.Entry<SearchHit, Map<String, Object>> e : metas.entrySet()) {
+            SearchHit hit = e.getKey();
+            request.add(new UpdateRequest(index, "_doc", hit.getId())
+                    .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, UPDATE_META, Collections.singletonMap("meta", e.getValue())))
+                    .setIfSeqNo(hit.getSeqNo())
+                    .setIfPrimaryTerm(hit.getPrimaryTerm()));
+        }
+        for (SearchHit hit : deletes) {
+            request.add(new DeleteRequest(index)
+                    .type("_doc")
+                    .id(hit.getId())
+                    .setIfSeqNo(hit.getSeqNo())
+                    .setIfPrimaryTerm(hit.getPrimaryTerm()));
+        }
+        client.bulkAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
     @Override
     protected void doClose() {
         if (client != null) {
@@ -24,6 +24,8 @@ public class ESProperties {
     private final Integer connectionTimeout;
     private final Integer connectionRequestTimeout;
     private final String index;
+    private final Integer sslSessionCacheSize;
+    private final Integer sslSessionTimeout;
 
     public ESProperties(Configuration config) {
         this.hosts = config.getStrings("hosts");
@@ -39,6 +41,8 @@ public class ESProperties {
         this.connectionTimeout = config.getInteger("connectionTimeout", -1);
         this.connectionRequestTimeout = config.getInteger("connectionRequestTimeout", -1);
         this.index = config.getString("index");
+        this.sslSessionCacheSize = config.getInteger("sslSessionCacheSize", 256);
+        this.sslSessionTimeout = config.getInteger("sslSessionTimeout", 3600);
     }
 
     public List<String> getHosts() {
@@ -92,4 +96,18 @@ public class ESProperties {
     public String getIndex() {
         return index;
     }
+
+    /**
+     * Returns the maximum number of tls sessions cached for resumption, 0 for no limit.
+     */
+    public Integer getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * Returns the seconds a cached tls session may be resumed.
+     */
+    public Integer getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
 }
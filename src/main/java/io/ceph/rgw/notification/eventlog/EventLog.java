@@ -0,0 +1,303 @@
+package io.ceph.rgw.notification.eventlog;
+
+import io.ceph.rgw.client.config.Configuration;
+import io.ceph.rgw.client.util.AbstractClosable;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable append-only log of published frames, split into segments and addressed by the frame sequences,
+ * so that consumers can read the event stream from any retained offset.
+ * Frames are appended by a single writer thread, and read as {@link FileRegion}s that never enter the heap,
+ * the files of which are opened and positioned by a single reader thread.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/5.
+ */
+public class EventLog extends AbstractClosable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLog.class);
+    private final EventLogProperties properties;
+    private final File dir;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments;
+    private final ScheduledExecutorService writer;
+    private final ExecutorService reader;
+    private volatile LogSegment active;
+
+    public EventLog(Configuration config) throws IOException {
+        this.properties = new EventLogProperties(config);
+        this.dir = new File(Validate.notBlank(properties.getDir(), "dir cannot be empty string")).getAbsoluteFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory: " + dir);
+        }
+        this.segments = new ConcurrentSkipListMap<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(LogSegment.LOG_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                long baseOffset = Long.parseLong(file.getName().substring(0, file.getName().length() - LogSegment.LOG_SUFFIX.length()));
+                segments.put(baseOffset, LogSegment.open(dir, baseOffset, properties.getIndexInterval()));
+            }
+        }
+        this.active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        this.writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("notification-log"));
+        this.writer.scheduleWithFixedDelay(this::retain, 1, 1, TimeUnit.MINUTES);
+        this.reader = Executors.newSingleThreadExecutor(new DefaultThreadFactory("notification-log-reader"));
+        LOGGER.info("Event log opened at [{}] with [{}] segments, last offset [{}].", dir, segments.size(), lastOffset());
+    }
+
+    /**
+     * Returns the offset of the last appended frame, or -1 if the log is empty.
+     */
+    public long lastOffset() {
+        LogSegment segment = active;
+        return segment == null ? -1 : segment.lastOffset();
+    }
+
+    /**
+     * Appends a frame asynchronously and releases it once written.
+     * Offsets must be appended in increasing order.
+     */
+    public void append(long offset, ByteBuf frame) {
+        try {
+            writer.execute(() -> {
+                try {
+                    doAppend(offset, frame);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to append frame [{}] to event log.", offset, e);
+                } finally {
+                    frame.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Event log closed, discard frame [{}].", offset);
+            frame.release();
+        }
+    }
+
+    private void doAppend(long offset, ByteBuf frame) throws IOException {
+        LogSegment segment = active;
+        if (segment == null || (segment.size() > 0 && segment.size() + frame.readableBytes() > properties.getSegmentSize())) {
+            if (segment != null) {
+                segment.flush();
+            }
+            segment = LogSegment.create(dir, offset, properties.getIndexInterval());
+            segments.put(offset, segment);
+            active = segment;
+            LOGGER.debug("Rolled event log segment [{}].", segment);
+        }
+        segment.append(offset, frame);
+    }
+
+    private void retain() {
+        long total = 0;
+        for (LogSegment segment : segments.values()) {
+            total += segment.size();
+        }
+        long expiry = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(properties.getRetentionHours());
+        for (Map.Entry<Long, LogSegment> e : segments.entrySet()) {
+            LogSegment segment = e.getValue();
+            if (segment == active || (total <= properties.getRetentionBytes() && segment.lastModified() >= expiry)) {
+                break;
+            }
+            segments.remove(e.getKey());
+            total -= segment.size();
+            segment.delete();
+            LOGGER.info("Deleted event log segment [{}].", segment);
+        }
+    }
+
+    /**
+     * Reads a slice of the log on the reader thread, the future completes with the slice,
+     * or with an {@link OffsetOutOfRangeException} if the frames from the offset are no longer retained.
+     *
+     * @see #read(long, int)
+     */
+    public CompletableFuture<Slice> readAsync(long offset, int maxBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(offset, maxBytes);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, reader);
+    }
+
+    /**
+     * Returns a slice of the log starting at the first frame whose offset is not less than the given one,
+     * or at the first retained frame if the offset is 0,
+     * ending at a frame boundary after at most {@link EventLogProperties#getMaxReadBytes()} bytes.
+     *
+     * @throws OffsetOutOfRangeException if the offset is before the first retained frame
+     */
+    public Slice read(long offset, int maxBytes) throws IOException {
+        long remaining = Math.min(maxBytes, properties.getMaxReadBytes());
+        Map.Entry<Long, LogSegment> first = segments.floorEntry(offset);
+        if (first == null) {
+            first = segments.firstEntry();
+            // the frames before the first segment were deleted by retention
+            if (first != null && offset > 0) {
+                throw new OffsetOutOfRangeException(offset, first.getKey());
+            }
+        }
+        if (first == null) {
+            return new Slice(Collections.emptyList(), 0, offset);
+        }
+        List<Range> ranges = new ArrayList<>();
+        long length = 0;
+        long next = offset;
+        try {
+            for (LogSegment segment : segments.tailMap(first.getKey()).values()) {
+                long end = segment.size();
+                long start = segment == first.getValue() ? segment.position(offset, end) : 0;
+                long stop = end;
+                if (end - start > remaining) {
+                    stop = segment.boundary(start, start + remaining, end);
+                }
+                if (stop > start) {
+                    FileChannel channel = FileChannel.open(segment.getFile().toPath(), StandardOpenOption.READ);
+                    ranges.add(new Range(channel, start, stop - start));
+                    length += stop - start;
+                    remaining -= stop - start;
+                }
+                if (stop < end) {
+                    next = segment.offsetAt(stop, end);
+                    break;
+                }
+                next = Math.max(next, segment.lastOffset() + 1);
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            for (Range range : ranges) {
+                range.channel.close();
+            }
+            throw e;
+        }
+        return new Slice(ranges, length, next);
+    }
+
+    @Override
+    protected void doClose() {
+        reader.shutdown();
+        writer.shutdown();
+        try {
+            if (!reader.awaitTermination(10, TimeUnit.SECONDS) || !writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out waiting for event log writer.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.flush();
+            } catch (IOException e) {
+                LOGGER.error("Failed to flush segment [{}].", segment, e);
+            }
+            segment.close();
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    /**
+     * A range of the log, made of file ranges to be written in order,
+     * either as file regions or as a chunked input where files cannot be transferred directly.
+     * A slice must be written once, in one of the two forms, which then own the open files.
+     */
+    public static class Slice {
+        private final List<Range> ranges;
+        private final long length;
+        private final long nextOffset;
+
+        Slice(List<Range> ranges, long length, long nextOffset) {
+            this.ranges = ranges;
+            this.length = length;
+            this.nextOffset = nextOffset;
+        }
+
+        public List<FileRegion> getRegions() {
+            List<FileRegion> regions = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                regions.add(new DefaultFileRegion(range.channel, range.position, range.count));
+            }
+            return regions;
+        }
+
+        /**
+         * Returns the slice as a chunked input, which reads the files into buffers of at most the chunk size.
+         */
+        public ChunkedInput<ByteBuf> toChunkedInput(int chunkSize) throws IOException {
+            List<ChunkedNioFile> files = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                files.add(new ChunkedNioFile(range.channel, range.position, range.count, chunkSize));
+            }
+            return new SliceInput(files, length);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the offset to continue reading from.
+         */
+        public long getNextOffset() {
+            return nextOffset;
+        }
+    }
+
+    /**
+     * Thrown when reading from an offset whose frames were deleted by retention, with the first offset still retained.
+     */
+    public static class OffsetOutOfRangeException extends IOException {
+        private final long firstOffset;
+
+        OffsetOutOfRangeException(long offset, long firstOffset) {
+            super("offset " + offset + " is before the first retained offset " + firstOffset);
+            this.firstOffset = firstOffset;
+        }
+
+        public long getFirstOffset() {
+            return firstOffset;
+        }
+    }
+
+    private static class Range {
+        private final FileChannel channel;
+        private final long position;
+        private final long count;
+
+        Range(FileChannel channel, long position, long count) {
+            this.channel = channel;
+            this.position = position;
+            this.count = count;
+        }
+    }
+}
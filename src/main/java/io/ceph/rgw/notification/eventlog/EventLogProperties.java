@@ -0,0 +1,63 @@
+package io.ceph.rgw.notification.eventlog;
+
+import io.ceph.rgw.client.config.Configuration;
+
+/**
+ * Properties of {@link EventLog}.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/5.
+ */
+public class EventLogProperties {
+    private final String dir;
+    private final Integer segmentSize;
+    private final Integer indexInterval;
+    private final Integer retentionHours;
+    private final Long retentionBytes;
+    private final Integer maxReadBytes;
+
+    public EventLogProperties(Configuration config) {
+        this.dir = config.getString("dir");
+        this.segmentSize = config.getInteger("segmentSize", 64 * 1024 * 1024);
+        this.indexInterval = config.getInteger("indexInterval", 4096);
+        this.retentionHours = config.getInteger("retentionHours", 168);
+        this.retentionBytes = Long.parseLong(config.getString("retentionBytes", "10737418240"));
+        this.maxReadBytes = config.getInteger("maxReadBytes", 16 * 1024 * 1024);
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public Integer getSegmentSize() {
+        return segmentSize;
+    }
+
+    public Integer getIndexInterval() {
+        return indexInterval;
+    }
+
+    public Integer getRetentionHours() {
+        return retentionHours;
+    }
+
+    public Long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    public Integer getMaxReadBytes() {
+        return maxReadBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "EventLogProperties{" +
+                "dir='" + dir + '\'' +
+                ", segmentSize=" + segmentSize +
+                ", indexInterval=" + indexInterval +
+                ", retentionHours=" + retentionHours +
+                ", retentionBytes=" + retentionBytes +
+                ", maxReadBytes=" + maxReadBytes +
+                '}';
+    }
+}
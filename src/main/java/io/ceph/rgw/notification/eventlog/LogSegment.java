@@ -0,0 +1,306 @@
+package io.ceph.rgw.notification.eventlog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A log file holding frames in the subscriber wire format, starting at a base offset,
+ * along with a sparse index file mapping offsets to file positions.
+ * Frames are only appended by the writer thread of {@link EventLog}, while positions can be looked up concurrently.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/5.
+ */
+class LogSegment {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogSegment.class);
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+    private static final int HEADER_SIZE = 64;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final String SEQUENCE_FIELD = "sequence";
+    private static final JsonFactory JSON = new JsonFactory();
+    private final long baseOffset;
+    private final File file;
+    private final File indexFile;
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private final int indexInterval;
+    private long[] offsets;
+    private long[] positions;
+    private int entries;
+    private volatile long size;
+    private volatile long lastOffset;
+    private volatile long lastModified;
+
+    private LogSegment(File dir, long baseOffset, int indexInterval) throws IOException {
+        this.baseOffset = baseOffset;
+        this.file = new File(dir, String.format("%020d", baseOffset) + LOG_SUFFIX);
+        this.indexFile = new File(dir, String.format("%020d", baseOffset) + INDEX_SUFFIX);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexInterval = indexInterval;
+        this.offsets = new long[16];
+        this.positions = new long[16];
+        this.lastOffset = baseOffset - 1;
+        this.lastModified = file.lastModified();
+    }
+
+    static LogSegment create(File dir, long baseOffset, int indexInterval) throws IOException {
+        return new LogSegment(dir, baseOffset, indexInterval);
+    }
+
+    /**
+     * Opens an existing segment, drops index entries beyond the log file and truncates an incomplete trailing frame.
+     */
+    static LogSegment open(File dir, long baseOffset, int indexInterval) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOffset, indexInterval);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        long length = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        long count = indexChannel.size() / INDEX_ENTRY_SIZE;
+        for (long i = 0; i < count; i++) {
+            buf.clear();
+            readFully(indexChannel, buf, i * INDEX_ENTRY_SIZE);
+            buf.flip();
+            long offset = buf.getLong();
+            long position = buf.getLong();
+            if (position >= length) {
+                break;
+            }
+            addEntry(offset, position);
+        }
+        indexChannel.truncate((long) entries * INDEX_ENTRY_SIZE);
+        indexChannel.position((long) entries * INDEX_ENTRY_SIZE);
+        long position = entries == 0 ? 0 : positions[entries - 1];
+        long[] header = new long[2];
+        while (position < length && readHeader(position, length, header)) {
+            lastOffset = header[1];
+            position += header[0];
+        }
+        if (position < length) {
+            LOGGER.warn("Truncate incomplete frame of [{}] at position [{}].", file, position);
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long lastOffset() {
+        return lastOffset;
+    }
+
+    long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Appends a frame, returns the bytes written.
+     */
+    int append(long offset, ByteBuf frame) throws IOException {
+        long position = size;
+        synchronized (this) {
+            if (entries == 0 || position - positions[entries - 1] >= indexInterval) {
+                ByteBuffer buf = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+                buf.putLong(offset).putLong(position).flip();
+                while (buf.hasRemaining()) {
+                    indexChannel.write(buf);
+                }
+                addEntry(offset, position);
+            }
+        }
+        int length = frame.readableBytes();
+        int written = 0;
+        while (written < length) {
+            written += frame.getBytes(frame.readerIndex() + written, channel, position + written, length - written);
+        }
+        lastOffset = offset;
+        lastModified = System.currentTimeMillis();
+        size = position + length;
+        return length;
+    }
+
+    private void addEntry(long offset, long position) {
+        if (entries == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entries << 1);
+            positions = Arrays.copyOf(positions, entries << 1);
+        }
+        offsets[entries] = offset;
+        positions[entries] = position;
+        entries++;
+    }
+
+    /**
+     * Returns the position of the indexed frame with the greatest offset not greater than the given one.
+     */
+    private synchronized long floorPosition(long offset) {
+        int i = Arrays.binarySearch(offsets, 0, entries, offset);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? 0 : positions[i];
+    }
+
+    /**
+     * Returns the position of the indexed frame with the greatest position not greater than the given one.
+     */
+    private synchronized long floorIndexedPosition(long position) {
+        int i = Arrays.binarySearch(positions, 0, entries, position);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? 0 : positions[i];
+    }
+
+    /**
+     * Returns the position of the first frame whose offset is not less than the given one,
+     * or the end position if there is none.
+     */
+    long position(long offset, long end) throws IOException {
+        long position = floorPosition(offset);
+        long[] header = new long[2];
+        while (position < end && readHeader(position, end, header) && header[1] < offset) {
+            position += header[0];
+        }
+        return Math.min(position, end);
+    }
+
+    /**
+     * Returns the greatest frame boundary between start and limit, or the end of the first frame
+     * if it alone exceeds the limit.
+     */
+    long boundary(long start, long limit, long end) throws IOException {
+        long position = Math.max(start, floorIndexedPosition(limit));
+        long[] header = new long[2];
+        while (position < end && readHeader(position, end, header)) {
+            if (position + header[0] > limit && position > start) {
+                break;
+            }
+            position += header[0];
+            if (position >= limit) {
+                break;
+            }
+        }
+        return Math.min(position, end);
+    }
+
+    /**
+     * Returns the offset of the frame at the position, or -1 if there is none before the end.
+     */
+    long offsetAt(long position, long end) throws IOException {
+        long[] header = new long[2];
+        return position < end && readHeader(position, end, header) ? header[1] : -1;
+    }
+
+    /**
+     * Reads the length and offset of the frame at the position, returns false if the frame is incomplete
+     * or not in the wire format.
+     */
+    private boolean readHeader(long position, long end, long[] header) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(HEADER_SIZE, end - position));
+        readFully(channel, buf, position);
+        buf.flip();
+        // the length line, a decimal message length and a line separator
+        int i = 0;
+        long length = 0;
+        while (i < buf.limit() && Character.isDigit(buf.get(i))) {
+            length = length * 10 + (buf.get(i++) - '0');
+        }
+        if (i == 0 || i + 2 > buf.limit() || buf.get(i) != '\r' || buf.get(i + 1) != '\n') {
+            return false;
+        }
+        int start = i + 2;
+        long frameLength = start + length + 2;
+        if (position + frameLength > end) {
+            return false;
+        }
+        long offset = readSequence(buf.array(), start, (int) Math.min(buf.limit() - start, length));
+        if (offset < 0) {
+            return false;
+        }
+        header[0] = frameLength;
+        header[1] = offset;
+        return true;
+    }
+
+    /**
+     * Reads the sequence from the head of a message, a json object with the sequence as its first field,
+     * returns -1 if there is none.
+     */
+    private static long readSequence(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = JSON.createParser(bytes, offset, length)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME
+                    && SEQUENCE_FIELD.equals(parser.getCurrentName()) && parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                return parser.getLongValue();
+            }
+            return -1;
+        } catch (JsonParseException e) {
+            return -1;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    void flush() throws IOException {
+        channel.force(false);
+        indexChannel.force(false);
+    }
+
+    void close() {
+        try {
+            channel.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close segment [{}].", file, e);
+        }
+    }
+
+    void delete() {
+        close();
+        if (!file.delete() || !indexFile.delete()) {
+            LOGGER.warn("Failed to delete segment [{}].", file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LogSegment{" +
+                "file=" + file +
+                ", size=" + size +
+                ", lastOffset=" + lastOffset +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package io.ceph.rgw.notification.eventlog;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+
+import java.util.List;
+
+/**
+ * The files of a slice read one after another as a single chunked input.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/6.
+ */
+class SliceInput implements ChunkedInput<ByteBuf> {
+    private final List<ChunkedNioFile> files;
+    private final long length;
+    private int index;
+    private long progress;
+
+    SliceInput(List<ChunkedNioFile> files, long length) {
+        this.files = files;
+        this.length = length;
+    }
+
+    @Override
+    public boolean isEndOfInput() throws Exception {
+        while (index < files.size() && files.get(index).isEndOfInput()) {
+            files.get(index++).close();
+        }
+        return index == files.size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (; index < files.size(); index++) {
+            files.get(index).close();
+        }
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+        if (isEndOfInput()) {
+            return null;
+        }
+        ByteBuf chunk = files.get(index).readChunk(allocator);
+        if (chunk != null) {
+            progress += chunk.readableBytes();
+        }
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+}
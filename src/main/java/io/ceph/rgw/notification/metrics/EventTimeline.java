@@ -0,0 +1,145 @@
+package io.ceph.rgw.notification.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages an object event passes through, from the object write in Rados gateway to the subscribers and ElasticSearch.
+ * The wall clock is read once on receipt, to measure the lag behind the event time of Rados gateway,
+ * later stages are stamped with the monotonic clock relative to the receipt.
+ * <p>
+ * An event is complete once it is both published and indexed, or failed, then it is kept as an exemplar if it is slow.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/8.
+ */
+public final class EventTimeline {
+    private static final long NONE = -1;
+    private final String bucket;
+    private final String key;
+    private final long eventTime;
+    private final long receivedTime;
+    private final long receivedNanos;
+    private final SlowEvents slowEvents;
+    private final AtomicInteger pending;
+    private volatile long lookedUp = NONE;
+    private volatile long serialized = NONE;
+    private volatile long published = NONE;
+    private volatile long indexed = NONE;
+    private volatile boolean failed;
+
+    /**
+     * @param eventTime    the milliseconds of the object write, or negative if unknown
+     * @param receivedTime the milliseconds when the notification was received
+     * @param stages       the stages after which the event is complete, publishing and indexing, or indexing only
+     */
+    public EventTimeline(String bucket, String key, long eventTime, long receivedTime, int stages, SlowEvents slowEvents) {
+        this.bucket = bucket;
+        this.key = key;
+        this.eventTime = eventTime;
+        this.receivedTime = receivedTime;
+        this.receivedNanos = System.nanoTime();
+        this.slowEvents = slowEvents;
+        this.pending = new AtomicInteger(stages);
+        if (eventTime >= 0) {
+            Metrics.RECEIVE_LAG.record(TimeUnit.MILLISECONDS.toNanos(receivedTime - eventTime));
+        }
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    public void lookedUp() {
+        lookedUp = elapsed();
+    }
+
+    public void serialized() {
+        serialized = elapsed();
+    }
+
+    /**
+     * Stamps the event as written to the subscribers of this node.
+     */
+    public void published() {
+        published = elapsed();
+        record(Metrics.DELIVERY_LAG, published);
+        complete();
+    }
+
+    /**
+     * Stamps the event as acknowledged by ElasticSearch, which makes it visible to searches after the next refresh.
+     */
+    public void indexed() {
+        indexed = elapsed();
+        record(Metrics.INDEX_LAG, indexed);
+        complete();
+    }
+
+    /**
+     * Completes the event after a stage failed, the remaining stages are never reached.
+     */
+    public void failed() {
+        failed = true;
+        pending.set(1);
+        complete();
+    }
+
+    private long elapsed() {
+        return System.nanoTime() - receivedNanos;
+    }
+
+    private void record(LatencyHistogram histogram, long elapsed) {
+        if (eventTime >= 0) {
+            histogram.record(lag(elapsed));
+        }
+    }
+
+    /**
+     * Returns the nanoseconds from the object write to a stage.
+     */
+    private long lag(long elapsed) {
+        return TimeUnit.MILLISECONDS.toNanos(receivedTime - eventTime) + elapsed;
+    }
+
+    private void complete() {
+        if (pending.decrementAndGet() != 0 || slowEvents == null) {
+            return;
+        }
+        long last = Math.max(Math.max(lookedUp, serialized), Math.max(published, indexed));
+        if (eventTime >= 0 && TimeUnit.NANOSECONDS.toMillis(lag(Math.max(0, last))) >= slowEvents.getThreshold()) {
+            slowEvents.add(toMap());
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("bucket", bucket);
+        map.put("key", key);
+        map.put("eventTime", eventTime);
+        map.put("receiveLagMs", receivedTime - eventTime);
+        map.put("lookupMs", millis(lookedUp));
+        map.put("serializedMs", millis(serialized));
+        map.put("publishedMs", millis(published));
+        map.put("indexedMs", millis(indexed));
+        map.put("failed", failed);
+        return map;
+    }
+
+    /**
+     * Returns the milliseconds from the receipt to a stage, or -1 if it was not reached.
+     */
+    private static double millis(long elapsed) {
+        return elapsed == NONE ? NONE : elapsed / 1_000_000D;
+    }
+}
@@ -0,0 +1,101 @@
+package io.ceph.rgw.notification.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * The fan-out of an event to the subscribers of this node, with the matching pass over their conditions.
+ * Only fan-outs above the threshold are recorded, which are the ones of many subscribers or large frames.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/11.
+ */
+@Name("io.ceph.rgw.notification.FanOut")
+@Label("Fan-out")
+@Category(FlightEvents.CATEGORY)
+@Description("Matching and writing of an event to subscribers")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("1 ms")
+public final class FanOutEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(FanOutEvent.class);
+
+    @Label("Object")
+    String id;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Subscribers")
+    int subscribers;
+
+    @Label("Conditions")
+    @Description("Distinct conditions evaluated")
+    int conditions;
+
+    @Label("Matched")
+    int matched;
+
+    @Label("Written")
+    int written;
+
+    @Label("Frame Size")
+    @DataAmount
+    long frameBytes;
+
+    @Label("Written Size")
+    @DataAmount
+    long writtenBytes;
+
+    @Label("Matching Time")
+    @Timespan
+    long matchingNanos;
+
+    /**
+     * Begins an event, or returns null if the event is disabled.
+     */
+    public static FanOutEvent start(String id, long sequence, int frameBytes) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        FanOutEvent event = new FanOutEvent();
+        event.id = id;
+        event.sequence = sequence;
+        event.frameBytes = frameBytes;
+        event.begin();
+        return event;
+    }
+
+    public void subscriber() {
+        subscribers++;
+    }
+
+    public void evaluated(long nanos) {
+        conditions++;
+        matchingNanos += nanos;
+    }
+
+    public void matched() {
+        matched++;
+    }
+
+    public void written(int bytes) {
+        written++;
+        writtenBytes += bytes;
+    }
+
+    public void complete() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.ceph.rgw.notification.metrics;
+
+/**
+ * Custom Java Flight Recorder events of the hot paths, recorded along with GC, allocation and lock events.
+ * The events are disabled by default and enabled by a recording with the settings in config/notification.jfc,
+ * while disabled an event costs a check of its type and is never allocated.
+ * <p>
+ * Java 8 runtimes before 8u262 have no jdk.jfr, event classes are only loaded if it is available.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/11.
+ */
+public final class FlightEvents {
+    public static final String CATEGORY = "Rados Gateway Notification";
+    public static final boolean AVAILABLE = available();
+
+    private FlightEvents() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
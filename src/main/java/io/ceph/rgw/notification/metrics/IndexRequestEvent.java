@@ -0,0 +1,70 @@
+package io.ceph.rgw.notification.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * An index or delete request to ElasticSearch, from its submission until its acknowledgement,
+ * which is on a thread of the client.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/11.
+ */
+@Name("io.ceph.rgw.notification.IndexRequest")
+@Label("Index Request")
+@Category(FlightEvents.CATEGORY)
+@Description("Index or delete request to ElasticSearch")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("10 ms")
+public final class IndexRequestEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(IndexRequestEvent.class);
+
+    @Label("Event Type")
+    String eventType;
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Size")
+    @Description("Size of the indexed document, zero for deletes")
+    @DataAmount
+    long bytes;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * Begins an event, or returns null if the event is disabled.
+     */
+    public static IndexRequestEvent start(String eventType, String bucket, String key, int bytes) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        IndexRequestEvent event = new IndexRequestEvent();
+        event.eventType = eventType;
+        event.bucket = bucket;
+        event.key = key;
+        event.bytes = bytes;
+        event.begin();
+        return event;
+    }
+
+    public void complete(boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.ceph.rgw.notification.metrics;
+
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.IntCountsHistogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A latency distribution in microseconds, recorded wait-free and without allocation by any number of threads.
+ * Recordings are moved out of the recorder when scraped, quantiles and the max are of a sliding window over
+ * the last minute, so that they follow the current latencies, while the sum and count are cumulative.
+ * Longer latencies are recorded as the highest trackable one.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/7.
+ */
+public final class LatencyHistogram {
+    private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toMicros(1);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final int SLICES = 6;
+    private static final long SLICE_MS = TimeUnit.MINUTES.toMillis(1) / SLICES;
+    private final String name;
+    private final String help;
+    private final Recorder recorder;
+    // the window is a ring of slices, recordings of a scrape go to the slice of its time
+    private final AbstractHistogram[] slices;
+    private final Histogram window;
+    private Histogram interval;
+    private int current;
+    private long sliceStart;
+    private long count;
+    private double sumMicros;
+
+    LatencyHistogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+        this.recorder = new Recorder(HIGHEST_TRACKABLE, 3);
+        this.slices = new AbstractHistogram[SLICES];
+        for (int i = 0; i < SLICES; i++) {
+            this.slices[i] = new IntCountsHistogram(HIGHEST_TRACKABLE, 3);
+        }
+        this.window = new Histogram(HIGHEST_TRACKABLE, 3);
+        this.sliceStart = System.currentTimeMillis();
+    }
+
+    public void record(long nanos) {
+        recorder.recordValue(Math.max(0, Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE)));
+    }
+
+    /**
+     * Records the nanoseconds elapsed since the start, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Writes the distribution as a summary in seconds, quantiles are NaN if nothing was recorded in the window.
+     */
+    synchronized void write(StringBuilder out) {
+        interval = recorder.getIntervalHistogram(interval);
+        count += interval.getTotalCount();
+        sumMicros += interval.getMean() * interval.getTotalCount();
+        rotate(System.currentTimeMillis());
+        slices[current].add(interval);
+        window.reset();
+        for (AbstractHistogram slice : slices) {
+            window.add(slice);
+        }
+        boolean empty = window.getTotalCount() == 0;
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(empty ? Double.NaN : seconds(window.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        out.append(name).append("_max ").append(empty ? Double.NaN : seconds(window.getMaxValue())).append('\n');
+        out.append(name).append("_sum ").append(seconds(sumMicros)).append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+
+    /**
+     * Moves to the slice of the time, clearing the slices passed over.
+     */
+    private void rotate(long now) {
+        long elapsed = (now - sliceStart) / SLICE_MS;
+        if (elapsed <= 0) {
+            return;
+        }
+        for (long i = 0; i < Math.min(elapsed, SLICES); i++) {
+            current = (current + 1) % SLICES;
+            slices[current].reset();
+        }
+        sliceStart += elapsed * SLICE_MS;
+    }
+
+    private static double seconds(double micros) {
+        return micros / 1_000_000D;
+    }
+}
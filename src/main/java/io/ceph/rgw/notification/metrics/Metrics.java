@@ -0,0 +1,147 @@
+package io.ceph.rgw.notification.metrics;
+
+import io.ceph.rgw.notification.model.Event;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide metrics, written in the Prometheus text format.
+ * Stages record their latencies into histograms, and events are counted by type, both without allocation.
+ * Gauges and counters kept elsewhere are sampled when scraped.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/7.
+ */
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final List<LatencyHistogram> HISTOGRAMS = new ArrayList<>();
+    private static final Map<Event, LongAdder> EVENTS = new EnumMap<>(Event.class);
+    private static final List<Gauge> GAUGES = Collections.synchronizedList(new ArrayList<>());
+    public static final LatencyHistogram PUBLISH_DECODE = histogram("notification_publish_decode_seconds", "Deserialization of publish requests from Rados gateway.");
+    public static final LatencyHistogram OBJECT_INFO_LOOKUP = histogram("notification_object_info_lookup_seconds", "GetObjectInfo requests to Rados gateway.");
+    public static final LatencyHistogram SERIALIZATION = histogram("notification_serialization_seconds", "Serialization of object metadata info.");
+    public static final LatencyHistogram ES_INDEX = histogram("notification_es_index_seconds", "Index requests to ElasticSearch.");
+    public static final LatencyHistogram ES_DELETE = histogram("notification_es_delete_seconds", "Delete by query requests to ElasticSearch.");
+    public static final LatencyHistogram MATCHING = histogram("notification_matching_seconds", "Evaluations of subscription conditions.");
+    public static final LatencyHistogram FAN_OUT = histogram("notification_fan_out_seconds", "Fan-out of an event to all subscribers.");
+    public static final LatencyHistogram SUBSCRIBER_WRITE = histogram("notification_subscriber_write_seconds", "Sampled writes from fan-out to a subscriber socket.");
+    public static final LatencyHistogram RECEIVE_LAG = histogram("notification_receive_lag_seconds", "Lag from object writes to the receipt of their notifications.");
+    public static final LatencyHistogram DELIVERY_LAG = histogram("notification_delivery_lag_seconds", "Lag from object writes to the fan-out of their events to subscribers.");
+    public static final LatencyHistogram INDEX_LAG = histogram("notification_index_lag_seconds", "Lag from object writes to the acknowledgement of their index or delete requests by ElasticSearch.");
+    public static final LatencyHistogram TLS_HANDSHAKE = histogram("notification_tls_handshake_seconds", "Successful tls handshakes of client connections.");
+    public static final LongAdder LOOKUPS_IN_FLIGHT = gauge("notification_object_info_lookups_in_flight", "GetObjectInfo requests awaiting responses.");
+    public static final LongAdder ES_REQUESTS_IN_FLIGHT = gauge("notification_es_requests_in_flight", "ElasticSearch requests awaiting responses.");
+
+    static {
+        for (Event event : Event.values()) {
+            EVENTS.put(event, new LongAdder());
+        }
+        PooledByteBufAllocatorMetric pool = PooledByteBufAllocator.DEFAULT.metric();
+        gauge("notification_pool_used_direct_bytes", "Direct memory used by the pooled allocator.", pool::usedDirectMemory);
+        gauge("notification_pool_used_heap_bytes", "Heap memory used by the pooled allocator.", pool::usedHeapMemory);
+        gauge("notification_pool_direct_arenas", "Direct arenas of the pooled allocator.", pool::numDirectArenas);
+        gauge("notification_pool_heap_arenas", "Heap arenas of the pooled allocator.", pool::numHeapArenas);
+        gauge("notification_pool_thread_local_caches", "Thread local caches of the pooled allocator.", pool::numThreadLocalCaches);
+    }
+
+    private Metrics() {
+    }
+
+    private static LatencyHistogram histogram(String name, String help) {
+        LatencyHistogram histogram = new LatencyHistogram(name, help);
+        HISTOGRAMS.add(histogram);
+        return histogram;
+    }
+
+    private static LongAdder gauge(String name, String help) {
+        LongAdder adder = new LongAdder();
+        gauge(name, help, adder::sum);
+        return adder;
+    }
+
+    /**
+     * Registers a gauge, sampled whenever metrics are scraped.
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        GAUGES.add(new Gauge(name, help, "gauge", value));
+    }
+
+    /**
+     * Registers a gauge of a fractional value, like a ratio.
+     */
+    public static void ratio(String name, String help, DoubleSupplier value) {
+        GAUGES.add(new Gauge(name, help, "gauge", value));
+    }
+
+    /**
+     * Registers a counter kept elsewhere, sampled whenever metrics are scraped.
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        GAUGES.add(new Gauge(name, help, "counter", value));
+    }
+
+    public static void event(Event event) {
+        EVENTS.get(event).increment();
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP notification_events_total Object events received from Rados gateway by type.\n");
+        out.append("# TYPE notification_events_total counter\n");
+        EVENTS.forEach((event, count) -> out.append("notification_events_total{type=\"").append(event.name()).append("\"} ").append(count.sum()).append('\n'));
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.write(out);
+        }
+        synchronized (GAUGES) {
+            for (Gauge gauge : GAUGES) {
+                gauge.write(out);
+            }
+        }
+        return out.toString();
+    }
+
+    private static class Gauge {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final LongSupplier value;
+        private final DoubleSupplier fraction;
+
+        Gauge(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+            this.fraction = null;
+        }
+
+        Gauge(String name, String help, String type, DoubleSupplier fraction) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = null;
+            this.fraction = fraction;
+        }
+
+        void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            out.append(name).append(' ');
+            if (value != null) {
+                out.append(value.getAsLong());
+            } else {
+                out.append(fraction.getAsDouble());
+            }
+            out.append('\n');
+        }
+    }
+}
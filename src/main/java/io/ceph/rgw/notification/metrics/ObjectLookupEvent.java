@@ -0,0 +1,58 @@
+package io.ceph.rgw.notification.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A GetObjectInfo request to Rados gateway, from its submission until its response, which may be on another thread.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/11.
+ */
+@Name("io.ceph.rgw.notification.ObjectLookup")
+@Label("Object Lookup")
+@Category(FlightEvents.CATEGORY)
+@Description("GetObjectInfo request to Rados gateway")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("10 ms")
+public final class ObjectLookupEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(ObjectLookupEvent.class);
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * Begins an event, or returns null if the event is disabled.
+     */
+    public static ObjectLookupEvent start(String bucket, String key) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ObjectLookupEvent event = new ObjectLookupEvent();
+        event.bucket = bucket;
+        event.key = key;
+        event.begin();
+        return event;
+    }
+
+    public void complete(boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
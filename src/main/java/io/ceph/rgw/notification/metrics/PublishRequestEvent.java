@@ -0,0 +1,77 @@
+package io.ceph.rgw.notification.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The handling of a publish request from Rados gateway, from the receipt of its content
+ * until its events are dispatched to lookups and deletes.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/11.
+ */
+@Name("io.ceph.rgw.notification.PublishRequest")
+@Label("Publish Request")
+@Category(FlightEvents.CATEGORY)
+@Description("Handling of a publish request from Rados gateway")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("1 ms")
+public final class PublishRequestEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(PublishRequestEvent.class);
+
+    @Label("Bucket")
+    @Description("Bucket of the first event")
+    String bucket;
+
+    @Label("Events")
+    int events;
+
+    @Label("Creates")
+    int creates;
+
+    @Label("Deletes")
+    int deletes;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Begins an event, or returns null if the event is disabled.
+     */
+    public static PublishRequestEvent start(int bytes) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        PublishRequestEvent event = new PublishRequestEvent();
+        event.bytes = bytes;
+        event.begin();
+        return event;
+    }
+
+    public void received(String bucket, boolean create) {
+        if (events++ == 0) {
+            this.bucket = bucket;
+        }
+        if (create) {
+            creates++;
+        } else {
+            deletes++;
+        }
+    }
+
+    public void complete() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
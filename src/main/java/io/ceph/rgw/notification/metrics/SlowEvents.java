@@ -0,0 +1,60 @@
+package io.ceph.rgw.notification.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring of the latest events slower than a threshold from the object write to their last stage,
+ * each with its stage breakdown, older exemplars are overwritten.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/8.
+ */
+public final class SlowEvents {
+    private final long threshold;
+    private final AtomicReferenceArray<Map<String, Object>> ring;
+    private final AtomicLong count;
+
+    /**
+     * @param threshold the milliseconds from the object write, beyond which an event is slow
+     * @param size      the number of exemplars kept
+     */
+    public SlowEvents(long threshold, int size) {
+        this.threshold = threshold;
+        this.ring = new AtomicReferenceArray<>(Math.max(1, size));
+        this.count = new AtomicLong();
+    }
+
+    long getThreshold() {
+        return threshold;
+    }
+
+    void add(Map<String, Object> exemplar) {
+        ring.set((int) (count.getAndIncrement() % ring.length()), exemplar);
+    }
+
+    /**
+     * Returns the exemplars, the latest first.
+     */
+    public List<Map<String, Object>> list() {
+        long end = count.get();
+        List<Map<String, Object>> list = new ArrayList<>(ring.length());
+        for (long i = end - 1; i >= Math.max(0, end - ring.length()); i--) {
+            Map<String, Object> exemplar = ring.get((int) (i % ring.length()));
+            if (exemplar != null) {
+                list.add(exemplar);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the number of slow events seen, including overwritten ones.
+     */
+    public long getCount() {
+        return count.get();
+    }
+}
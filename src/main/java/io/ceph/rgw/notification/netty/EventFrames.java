@@ -0,0 +1,130 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Frames of a published event in the variants requested by matching subscribers,
+ * each variant is encoded at most once and shared by all of them.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/11.
+ */
+final class EventFrames {
+    private final ByteBufAllocator alloc;
+    private final ObjectMapper mapper;
+    private final long sequence;
+    private final ByteBuf frame;
+    private JsonNode tree;
+    private Map<FrameVariant, ByteBuf> variants;
+
+    /**
+     * Takes over the ownership of the frame, which is of the default variant.
+     */
+    EventFrames(ByteBufAllocator alloc, ObjectMapper mapper, long sequence, ByteBuf frame) {
+        this.alloc = alloc;
+        this.mapper = mapper;
+        this.sequence = sequence;
+        this.frame = frame;
+    }
+
+    /**
+     * Returns the frame of the variant, the frame is not retained.
+     */
+    ByteBuf get(FrameVariant variant) throws IOException {
+        if (variant == FrameVariant.DEFAULT) {
+            return frame;
+        }
+        if (variants == null) {
+            variants = new HashMap<>(4);
+        }
+        ByteBuf buf = variants.get(variant);
+        if (buf == null) {
+            if (variant.isGzip()) {
+                buf = GzipEncoder.encode(alloc, get(variant.getUncompressed()));
+            } else if (variant.getTransport() != Transport.CHUNKED) {
+                buf = wrap(variant, get(variant.getChunked()));
+            } else {
+                buf = encode(variant);
+            }
+            variants.put(variant, buf);
+        }
+        return buf;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Slices the message of a chunked frame for transports with their own framing.
+     */
+    private ByteBuf wrap(FrameVariant variant, ByteBuf frame) {
+        ByteBuf message = variant.getFormat().isBinary() ? frame.slice(4, frame.readableBytes() - 4) : FrameEncoder.message(frame);
+        if (variant.getTransport() == Transport.SSE) {
+            return FrameEncoder.encodeEvent(alloc, sequence, message.retain());
+        }
+        return message.retain();
+    }
+
+    private ByteBuf encode(FrameVariant variant) throws IOException {
+        if (tree == null) {
+            tree = mapper.readTree(new ByteBufInputStream(FrameEncoder.message(frame)));
+        }
+        FrameFormat format = variant.getFormat();
+        ByteBuf message;
+        if (format.isBinary()) {
+            message = alloc.directBuffer();
+            // reserved for the length prefix
+            message.writeInt(0);
+        } else {
+            message = FrameEncoder.buffer(alloc);
+        }
+        try (JsonGenerator generator = format.getFactory().createGenerator((OutputStream) new ByteBufOutputStream(message))) {
+            generator.writeStartObject();
+            generator.writeNumberField("sequence", sequence);
+            if (variant.getProjection() != null) {
+                JsonNode stamp = tree.get("stamp");
+                if (stamp != null) {
+                    generator.writeFieldName("stamp");
+                    generator.writeTree(stamp);
+                }
+                variant.getProjection().write(generator, tree);
+            } else {
+                for (Iterator<Map.Entry<String, JsonNode>> it = tree.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> e = it.next();
+                    if (!"sequence".equals(e.getKey())) {
+                        generator.writeFieldName(e.getKey());
+                        generator.writeTree(e.getValue());
+                    }
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            message.release();
+            throw e;
+        }
+        if (format.isBinary()) {
+            return message.setInt(0, message.readableBytes() - 4);
+        }
+        return FrameEncoder.encode(message);
+    }
+
+    void release() {
+        frame.release();
+        if (variants != null) {
+            variants.values().forEach(ByteBuf::release);
+        }
+    }
+}
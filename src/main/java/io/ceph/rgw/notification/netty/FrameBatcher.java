@@ -0,0 +1,129 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates frames written to a subscriber channel and writes them as one http chunk,
+ * once there are max batch frames or the first pending frame has lingered for max linger milliseconds.
+ * Without linger, a flush is deferred to a task behind those already queued on the event loop, so frames
+ * written and flushed one by one from other threads are still written as one chunk.
+ * Runs on the channel's event loop, so there's nothing to synchronize.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/9.
+ */
+class FrameBatcher extends ChannelOutboundHandlerAdapter {
+    private final int maxBatch;
+    private final long maxLingerMs;
+    private final List<ChannelPromise> promises;
+    private CompositeByteBuf pending;
+    private ScheduledFuture<?> lingerFuture;
+    private boolean flushPending;
+
+    FrameBatcher(int maxBatch, long maxLingerMs) {
+        this.maxBatch = maxBatch;
+        this.maxLingerMs = maxLingerMs;
+        this.promises = new ArrayList<>(maxBatch);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof HttpContent) || msg instanceof LastHttpContent) {
+            writePending(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf frame = ((HttpContent) msg).content();
+        if (pending == null) {
+            pending = ctx.alloc().compositeDirectBuffer(maxBatch);
+            if (maxLingerMs > 0) {
+                lingerFuture = ctx.executor().schedule(() -> {
+                    lingerFuture = null;
+                    writePending(ctx);
+                    ctx.flush();
+                }, maxLingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        pending.addComponent(true, frame);
+        promises.add(promise);
+        if (promises.size() >= maxBatch) {
+            writePending(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (pending == null) {
+            ctx.flush();
+        } else if (maxLingerMs <= 0 && !flushPending) {
+            flushPending = true;
+            ctx.executor().execute(() -> {
+                flushPending = false;
+                writePending(ctx);
+                ctx.flush();
+            });
+        }
+        // otherwise frames lingering for more are flushed later by the linger task
+    }
+
+    private void writePending(ChannelHandlerContext ctx) {
+        if (pending == null) {
+            return;
+        }
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        ChannelPromise[] batch = promises.toArray(new ChannelPromise[0]);
+        promises.clear();
+        ctx.write(new DefaultHttpContent(pending)).addListener(f -> {
+            for (ChannelPromise promise : batch) {
+                if (f.isSuccess()) {
+                    promise.trySuccess();
+                } else {
+                    promise.tryFailure(f.cause());
+                }
+            }
+        });
+        pending = null;
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        discardPending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        discardPending(ctx);
+    }
+
+    private void discardPending(ChannelHandlerContext ctx) {
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        if (pending != null) {
+            ReferenceCountUtil.release(pending);
+            pending = null;
+        }
+        for (ChannelPromise promise : promises) {
+            promise.tryFailure(new IllegalStateException("channel closed with pending frames"));
+        }
+        promises.clear();
+    }
+}
@@ -0,0 +1,185 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ByteProcessor;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Encodes messages in the subscriber wire format, a decimal length line followed by the message and a line separator.
+ * A frame is written into one pooled buffer in a single pass, the constant pieces and the length lines of
+ * common message lengths are shared unreleasable buffers, which are copied from without touching their indexes.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/16.
+ */
+final class FrameEncoder {
+    private static final ByteBuf LINE_SEPARATOR = constant("\r\n");
+    private static final ByteBuf SEQUENCE_PREFIX = constant("{\"sequence\":");
+    private static final ByteBuf STAMP_PREFIX = constant(",\"stamp\":{");
+    private static final ByteBuf STAMP_EVENT = constant("\"event\":");
+    private static final ByteBuf STAMP_PUBLISHED = constant("\"published\":");
+    private static final ByteBuf EVENT_ID = constant("id: ");
+    private static final ByteBuf EVENT_DATA = constant("\ndata: ");
+    private static final ByteBuf EVENT_END = constant("\n\n");
+    // room for the length line of any message, 10 digits and the line separator
+    private static final int MAX_LENGTH_LINE = 12;
+    private static final int CACHED_LENGTHS = 4096;
+    private static final ByteBuf LENGTH_LINES;
+    private static final int[] LENGTH_LINE_OFFSETS;
+
+    static {
+        // the length lines of 0 to CACHED_LENGTHS - 1 back to back, with the offset of each and the end of the last
+        int[] offsets = new int[CACHED_LENGTHS + 1];
+        StringBuilder lines = new StringBuilder(CACHED_LENGTHS * 6);
+        for (int i = 0; i < CACHED_LENGTHS; i++) {
+            offsets[i] = lines.length();
+            lines.append(i).append("\r\n");
+        }
+        offsets[CACHED_LENGTHS] = lines.length();
+        LENGTH_LINES = constant(lines.toString());
+        LENGTH_LINE_OFFSETS = offsets;
+    }
+
+    private FrameEncoder() {
+    }
+
+    private static ByteBuf constant(String s) {
+        byte[] bytes = s.getBytes(CharsetUtil.US_ASCII);
+        return Unpooled.unreleasableBuffer(Unpooled.directBuffer(bytes.length, bytes.length).writeBytes(bytes).asReadOnly());
+    }
+
+    /**
+     * Encodes a serialized object, the sequence is spliced into it as the first field.
+     */
+    static ByteBuf encode(ByteBufAllocator alloc, long sequence, byte[] bytes) {
+        return encode(alloc, sequence, -1, -1, bytes);
+    }
+
+    /**
+     * Encodes a serialized object, the sequence and a stamp of the event and publish milliseconds are spliced into it
+     * as the first fields, like {"sequence":1,"stamp":{"event":1593561600000,"published":1593561600042},...}.
+     * The stamp is left out if the publish time is negative, and the event time if it is negative.
+     */
+    static ByteBuf encode(ByteBufAllocator alloc, long sequence, long eventTime, long publishTime, byte[] bytes) {
+        int stamp = 0;
+        if (publishTime >= 0) {
+            stamp = STAMP_PREFIX.readableBytes() + STAMP_PUBLISHED.readableBytes() + digits(publishTime) + 1;
+            if (eventTime >= 0) {
+                stamp += STAMP_EVENT.readableBytes() + digits(eventTime) + 1;
+            }
+        }
+        int length = SEQUENCE_PREFIX.readableBytes() + digits(sequence) + stamp + (bytes.length > 2 ? 1 : 0) + bytes.length - 1;
+        ByteBuf buf = alloc.directBuffer(lengthLine(length) + length + LINE_SEPARATOR.readableBytes());
+        writeLengthLine(buf, length);
+        write(buf, SEQUENCE_PREFIX);
+        writeDecimal(buf, sequence);
+        if (publishTime >= 0) {
+            write(buf, STAMP_PREFIX);
+            if (eventTime >= 0) {
+                write(buf, STAMP_EVENT);
+                writeDecimal(buf, eventTime);
+                buf.writeByte(',');
+            }
+            write(buf, STAMP_PUBLISHED);
+            writeDecimal(buf, publishTime);
+            buf.writeByte('}');
+        }
+        if (bytes.length > 2) {
+            buf.writeByte(',');
+        }
+        buf.writeBytes(bytes, 1, bytes.length - 1);
+        write(buf, LINE_SEPARATOR);
+        return buf;
+    }
+
+    /**
+     * Returns an empty buffer for a message to be encoded by {@link #encode(ByteBuf)},
+     * with room for the length line in front of it.
+     */
+    static ByteBuf buffer(ByteBufAllocator alloc) {
+        ByteBuf buf = alloc.directBuffer();
+        return buf.setIndex(MAX_LENGTH_LINE, MAX_LENGTH_LINE);
+    }
+
+    /**
+     * Encodes a message written into a buffer from {@link #buffer(ByteBufAllocator)} in place.
+     */
+    static ByteBuf encode(ByteBuf message) {
+        int length = message.readableBytes();
+        int start = message.readerIndex() - lengthLine(length);
+        int writerIndex = message.writerIndex();
+        writeLengthLine(message.setIndex(start, start), length);
+        message.writerIndex(writerIndex);
+        write(message, LINE_SEPARATOR);
+        return message;
+    }
+
+    /**
+     * Encodes a json message as a server-sent event and takes over the ownership of it.
+     */
+    static ByteBuf encodeEvent(ByteBufAllocator alloc, long sequence, ByteBuf message) {
+        try {
+            ByteBuf buf = alloc.directBuffer(EVENT_ID.readableBytes() + digits(sequence) + EVENT_DATA.readableBytes()
+                    + message.readableBytes() + EVENT_END.readableBytes());
+            write(buf, EVENT_ID);
+            writeDecimal(buf, sequence);
+            write(buf, EVENT_DATA);
+            buf.writeBytes(message, message.readerIndex(), message.readableBytes());
+            write(buf, EVENT_END);
+            return buf;
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * Returns the message of a frame, the slice is not retained.
+     */
+    static ByteBuf message(ByteBuf frame) {
+        int start = frame.forEachByte(ByteProcessor.FIND_LF) + 1;
+        return frame.slice(start, frame.writerIndex() - LINE_SEPARATOR.readableBytes() - start);
+    }
+
+    private static void write(ByteBuf buf, ByteBuf constant) {
+        buf.writeBytes(constant, constant.readerIndex(), constant.readableBytes());
+    }
+
+    private static int lengthLine(int length) {
+        return digits(length) + LINE_SEPARATOR.readableBytes();
+    }
+
+    private static void writeLengthLine(ByteBuf buf, int length) {
+        if (length < CACHED_LENGTHS) {
+            int offset = LENGTH_LINE_OFFSETS[length];
+            buf.writeBytes(LENGTH_LINES, offset, LENGTH_LINE_OFFSETS[length + 1] - offset);
+        } else {
+            writeDecimal(buf, length);
+            write(buf, LINE_SEPARATOR);
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes a non-negative value in ascii digits, without a string in between.
+     */
+    private static void writeDecimal(ByteBuf buf, long value) {
+        int end = buf.writerIndex() + digits(value);
+        buf.ensureWritable(end - buf.writerIndex());
+        int index = end;
+        long v = value;
+        do {
+            buf.setByte(--index, (int) ('0' + v % 10));
+            v /= 10;
+        } while (v > 0);
+        buf.writerIndex(end);
+    }
+}
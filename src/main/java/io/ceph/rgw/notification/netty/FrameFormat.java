@@ -0,0 +1,63 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.netty.handler.codec.http.HttpHeaderValues;
+
+/**
+ * Encodings of the subscribe stream.
+ * Json messages are framed by a decimal length line and a line separator,
+ * binary messages by a 4 bytes big-endian length.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/18.
+ */
+enum FrameFormat {
+    JSON(new JsonFactory(), HttpHeaderValues.APPLICATION_JSON.toString(), false),
+    SMILE(new SmileFactory(), "application/x-jackson-smile", true),
+    CBOR(new CBORFactory(), "application/cbor", true);
+
+    private final JsonFactory factory;
+    private final String contentType;
+    private final boolean binary;
+
+    FrameFormat(JsonFactory factory, String contentType, boolean binary) {
+        // the mapper sets itself as the codec of the factory, which is needed to write trees
+        this.factory = new ObjectMapper(factory).getFactory();
+        this.contentType = contentType;
+        this.binary = binary;
+    }
+
+    JsonFactory getFactory() {
+        return factory;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Negotiates the format from the format parameter, or the accept header if there's none.
+     *
+     * @throws IllegalArgumentException if the format parameter is unknown
+     */
+    static FrameFormat negotiate(String name, String accept) {
+        if (name != null) {
+            return valueOf(name.toUpperCase());
+        }
+        if (accept != null) {
+            for (FrameFormat format : values()) {
+                if (format.binary && accept.contains(format.contentType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
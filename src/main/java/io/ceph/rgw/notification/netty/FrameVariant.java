@@ -0,0 +1,95 @@
+package io.ceph.rgw.notification.netty;
+
+import java.util.Objects;
+
+/**
+ * The format, projection, compression and transport of frames delivered to a subscriber.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/18.
+ */
+final class FrameVariant {
+    static final FrameVariant DEFAULT = new FrameVariant(FrameFormat.JSON, null, false, Transport.CHUNKED);
+    private final FrameFormat format;
+    private final Projection projection;
+    private final boolean gzip;
+    private final Transport transport;
+    private final FrameVariant uncompressed;
+    private final FrameVariant chunked;
+
+    private FrameVariant(FrameFormat format, Projection projection, boolean gzip, Transport transport) {
+        this.format = format;
+        this.projection = projection;
+        this.gzip = gzip;
+        this.transport = transport;
+        this.uncompressed = gzip ? of(format, projection, false, transport) : this;
+        this.chunked = gzip || transport == Transport.CHUNKED ? this : of(format, projection, false, Transport.CHUNKED);
+    }
+
+    static FrameVariant of(FrameFormat format, Projection projection, boolean gzip, Transport transport) {
+        if (format == FrameFormat.JSON && projection == null && !gzip && transport == Transport.CHUNKED) {
+            return DEFAULT;
+        }
+        return new FrameVariant(format, projection, gzip, transport);
+    }
+
+    FrameFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the projection of the serialized object, or null if the whole object is delivered.
+     */
+    Projection getProjection() {
+        return projection;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the variant whose frames are compressed to frames of this variant.
+     */
+    FrameVariant getUncompressed() {
+        return uncompressed;
+    }
+
+    /**
+     * Returns the uncompressed chunked variant whose messages are wrapped for the transport of this variant.
+     */
+    FrameVariant getChunked() {
+        return chunked;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FrameVariant that = (FrameVariant) o;
+        return gzip == that.gzip && format == that.format && transport == that.transport && Objects.equals(projection, that.projection);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(format, projection, gzip, transport);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameVariant{" +
+                "format=" + format +
+                ", projection=" + projection +
+                ", gzip=" + gzip +
+                ", transport=" + transport +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a frame into a self-contained gzip member.
+ * Concatenated members are a valid gzip stream, so one member can be shared by every subscriber of a gzip stream.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/11.
+ */
+final class GzipEncoder {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_SIZE = 8;
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(6, true);
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+    private static final FastThreadLocal<CRC32> CRC = new FastThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    private GzipEncoder() {
+    }
+
+    static ByteBuf encode(ByteBufAllocator alloc, ByteBuf frame) {
+        byte[] input = ByteBufUtil.getBytes(frame);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        // deflate bound of zlib for stored blocks in the worst case
+        ByteBuf out = alloc.heapBuffer(HEADER.length + input.length + (input.length >> 12) + (input.length >> 14) + 13 + TRAILER_SIZE);
+        out.writeBytes(HEADER);
+        while (!deflater.finished()) {
+            out.ensureWritable(TRAILER_SIZE + 64);
+            int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes() - TRAILER_SIZE);
+            out.writerIndex(out.writerIndex() + n);
+        }
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(input, 0, input.length);
+        out.writeIntLE((int) crc.getValue());
+        out.writeIntLE(input.length);
+        return out;
+    }
+}
@@ -0,0 +1,113 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends heartbeats to write idle subscribers and evicts unresponsive ones.
+ * Every subscriber has one timeout in a wheel timer shared by all channels, rescheduled when it expires,
+ * so that idle detection costs neither a scheduled task per channel on the event loops nor a sweep over all subscribers.
+ * <p>
+ * A subscriber is evicted when a heartbeat is still not written after the write timeout,
+ * or when a websocket subscriber has not been heard from for two heartbeat intervals.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/29.
+ */
+final class Heartbeats {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Heartbeats.class);
+    private static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("notification-heartbeat", true), 100, TimeUnit.MILLISECONDS, 1024);
+    private static final ByteBuf COMMENT = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(": ping\n\n", CharsetUtil.UTF_8));
+    private static final ByteBuf GZIP_COMMENT = Unpooled.unreleasableBuffer(GzipEncoder.encode(UnpooledByteBufAllocator.DEFAULT, COMMENT.duplicate()));
+    // an empty message, which subscribers skip
+    private static final ByteBuf EMPTY_FRAME = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("0\r\n\r\n", CharsetUtil.UTF_8));
+    private static final ByteBuf GZIP_EMPTY_FRAME = Unpooled.unreleasableBuffer(GzipEncoder.encode(UnpooledByteBufAllocator.DEFAULT, EMPTY_FRAME.duplicate()));
+    private static final ByteBuf EMPTY_BINARY_FRAME = Unpooled.unreleasableBuffer(Unpooled.copyInt(0));
+    private static final ByteBuf GZIP_EMPTY_BINARY_FRAME = Unpooled.unreleasableBuffer(GzipEncoder.encode(UnpooledByteBufAllocator.DEFAULT, EMPTY_BINARY_FRAME.duplicate()));
+    private final long intervalMs;
+    private final long writeTimeoutMs;
+
+    Heartbeats(long intervalMs, long writeTimeoutMs) {
+        this.intervalMs = intervalMs;
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    /**
+     * Watches a subscriber until its channel is closed, does nothing if heartbeats are disabled.
+     */
+    void watch(Channel channel, Subscription subscription) {
+        if (intervalMs <= 0) {
+            return;
+        }
+        Timeout timeout = TIMER.newTimeout(t -> expire(channel, subscription), intervalMs, TimeUnit.MILLISECONDS);
+        subscription.setHeartbeat(timeout);
+        channel.closeFuture().addListener(f -> subscription.getHeartbeat().cancel());
+    }
+
+    private void expire(Channel channel, Subscription subscription) {
+        if (!channel.isActive()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long pending = subscription.getHeartbeatPending();
+        if (pending > 0 && now - pending > writeTimeoutMs) {
+            LOGGER.info("Close subscriber [{}], heartbeat not written for [{}]ms.", channel.remoteAddress(), now - pending);
+            channel.close();
+            return;
+        }
+        Transport transport = subscription.getVariant().getTransport();
+        if (transport == Transport.WEBSOCKET && subscription.getLastSeen() < now - 2 * intervalMs) {
+            LOGGER.info("Close unresponsive subscriber [{}].", channel.remoteAddress());
+            channel.close();
+            return;
+        }
+        // like a writer idle state, the heartbeat is due an interval after the last write
+        long delay = subscription.getLastWrite() + intervalMs - now;
+        if (delay <= 0) {
+            Object heartbeat = pending == 0 ? heartbeat(subscription) : null;
+            if (heartbeat != null) {
+                subscription.setHeartbeatPending(now);
+                channel.writeAndFlush(heartbeat).addListener(f -> {
+                    if (f.isSuccess()) {
+                        subscription.setHeartbeatPending(0);
+                    }
+                });
+            }
+            delay = intervalMs;
+        }
+        subscription.setHeartbeat(TIMER.newTimeout(t -> expire(channel, subscription), delay, TimeUnit.MILLISECONDS));
+    }
+
+    private static Object heartbeat(Subscription subscription) {
+        FrameVariant variant = subscription.getVariant();
+        switch (variant.getTransport()) {
+            case WEBSOCKET:
+                return new PingWebSocketFrame();
+            case SSE:
+                return Transport.SSE.wrap((variant.isGzip() ? GZIP_COMMENT : COMMENT).duplicate());
+            default:
+                if (!subscription.acceptsHeartbeats()) {
+                    return null;
+                }
+                ByteBuf frame;
+                if (variant.getFormat().isBinary()) {
+                    frame = variant.isGzip() ? GZIP_EMPTY_BINARY_FRAME : EMPTY_BINARY_FRAME;
+                } else {
+                    frame = variant.isGzip() ? GZIP_EMPTY_FRAME : EMPTY_FRAME;
+                }
+                return Transport.CHUNKED.wrap(frame.duplicate());
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package io.ceph.rgw.notification.netty;
 
-import io.ceph.rgw.client.ObjectClient;
-import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
@@ -9,35 +10,151 @@ import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpContentDecompressor;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.AsciiString;
 
 import java.util.Objects;
 
 /**
  * Assembles http handlers and adds {@link NotificationHandler} to channel's pipeline.
+ * The pipeline of a subscribe port has neither an aggregator nor a decompressor, since subscribe requests carry no content,
+ * and the pipeline of a publish port has no chunked writer.
+ * <p>
+ * If http/2 is enabled, a connection switches to it by prior knowledge or by h2c upgrade, or by ALPN with tls.
+ * Every http/2 stream is a child channel with a pipeline of its own, converting frames to http objects,
+ * so that many subscriptions share one connection, each backpressured by the flow control of its stream.
  *
  * @author zhuangshuo
  * Created by zhuangshuo on 2020/5/19.
  */
 public class HttpInitializer extends ChannelInitializer<SocketChannel> {
+    private static final String[] HTTP1_HANDLERS = {"aggregator", "decompressor", "compressor", "wsCompressor", "chunkedWriter", "handler"};
     private final HttpProperties properties;
     private final NotificationHandler handler;
+    private final Traffic traffic;
+    private final TlsContext tls;
+    private final ChannelInitializer<Http2StreamChannel> streamInitializer;
 
-    HttpInitializer(HttpProperties properties, ObjectClient objectClient, ESClient esClient) {
+    /**
+     * Creates an initializer of the traffic, connections are in cleartext if tls is null.
+     */
+    HttpInitializer(HttpProperties properties, NotificationHandler handler, Traffic traffic, TlsContext tls) {
         this.properties = Objects.requireNonNull(properties);
-        this.handler = new NotificationHandler(objectClient, esClient);
+        this.handler = Objects.requireNonNull(handler);
+        this.traffic = Objects.requireNonNull(traffic);
+        this.tls = tls;
+        this.streamInitializer = new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel channel) {
+                channel.attr(NotificationHandler.TRAFFIC_KEY).set(traffic);
+                ChannelPipeline p = channel.pipeline();
+                p.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                addHttpHandlers(p, false);
+            }
+        };
     }
 
     @Override
     protected void initChannel(SocketChannel channel) throws Exception {
+        channel.attr(NotificationHandler.TRAFFIC_KEY).set(traffic);
         ChannelPipeline p = channel.pipeline();
-        p.addLast(new HttpServerCodec());
-        p.addLast(new HttpObjectAggregator(65536));
-        p.addLast(new HttpContentDecompressor());
-        if (Boolean.TRUE.equals(properties.isEnableGzip())) {
-            p.addLast(new HttpContentCompressor());
+        if (tls != null) {
+            p.addLast(tls.newHandler(channel.alloc()), tls.newHandshakeCounter());
+            if (tls.isAlpn()) {
+                p.addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                    @Override
+                    protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                        if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                            ctx.pipeline().addLast(Http2FrameCodecBuilder.forServer().initialSettings(http2Settings()).build(),
+                                    new Http2MultiplexHandler(streamInitializer));
+                        } else {
+                            ctx.pipeline().addLast(new HttpServerCodec());
+                            addHttpHandlers(ctx.pipeline(), true);
+                        }
+                    }
+                });
+            } else {
+                p.addLast(new HttpServerCodec());
+                addHttpHandlers(p, true);
+            }
+            return;
+        }
+        HttpServerCodec codec = new HttpServerCodec();
+        if (Boolean.TRUE.equals(properties.isHttp2())) {
+            HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(codec, protocol ->
+                    AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol) ?
+                            new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().initialSettings(http2Settings()).build(),
+                                    new Http2MultiplexHandler(streamInitializer, streamInitializer), new Http1Remover()) : null);
+            p.addLast(new CleartextHttp2ServerUpgradeHandler(codec, upgradeHandler, new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    removeHttp1Handlers(ch.pipeline());
+                    ch.pipeline().addLast(Http2FrameCodecBuilder.forServer().initialSettings(http2Settings()).build(),
+                            new Http2MultiplexHandler(streamInitializer));
+                }
+            }));
+        } else {
+            p.addLast(codec);
+        }
+        addHttpHandlers(p, true);
+    }
+
+    /**
+     * Adds the handlers after the http codec, a connection pipeline also has a chunked writer and websocket compression.
+     */
+    private void addHttpHandlers(ChannelPipeline p, boolean connection) {
+        if (traffic == Traffic.SUBSCRIBE) {
+            p.addLast("aggregator", SubscribeRequestDecoder.INSTANCE);
+        } else {
+            p.addLast("aggregator", new HttpObjectAggregator(65536));
+            p.addLast("decompressor", new HttpContentDecompressor());
+            if (Boolean.TRUE.equals(properties.isEnableGzip())) {
+                p.addLast("compressor", new HttpContentCompressor());
+            }
+        }
+        if (connection && traffic != Traffic.PUBLISH && Boolean.TRUE.equals(properties.isWebSocketCompression())) {
+            p.addLast("wsCompressor", new WebSocketServerCompressionHandler());
+        }
+        if (connection && traffic == Traffic.ALL) {
+            p.addLast("chunkedWriter", new ChunkedWriteHandler());
+        }
+        p.addLast("handler", handler);
+    }
+
+    private Http2Settings http2Settings() {
+        return Http2Settings.defaultSettings()
+                .maxConcurrentStreams(properties.getHttp2MaxConcurrentStreams())
+                .initialWindowSize(properties.getHttp2InitialWindowSize());
+    }
+
+    /**
+     * Removes the http/1 handlers of a connection switched to http/2, requests are handled by the stream pipelines.
+     */
+    private static void removeHttp1Handlers(ChannelPipeline p) {
+        for (String name : HTTP1_HANDLERS) {
+            if (p.context(name) != null) {
+                p.remove(name);
+            }
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static class Http1Remover extends ChannelInitializer<Channel> {
+        @Override
+        protected void initChannel(Channel ch) {
+            removeHttp1Handlers(ch.pipeline());
         }
-        p.addLast(new ChunkedWriteHandler());
-        p.addLast(handler);
     }
 }
@@ -3,6 +3,8 @@ package io.ceph.rgw.notification.netty;
 
 import io.ceph.rgw.client.config.Configuration;
 
+import java.util.List;
+
 /**
  * Properties of {@link HttpServer}.
  *
@@ -22,6 +24,34 @@ public class HttpProperties {
     private final Integer sendBuffer;
     private final Integer receiveBuffer;
     private final Boolean enableGzip;
+    private final Integer replayCapacity;
+    private final Integer heartbeatInterval;
+    private final Integer writeTimeout;
+    private final Boolean webSocketCompression;
+    private final Integer snapshotPageSize;
+    private final Integer subscriberReceiveBuffer;
+    private final Integer subscriberBufferBudget;
+    private final Boolean epoll;
+    private final Boolean reusePort;
+    private final Integer bossThreads;
+    private final Integer workerThreads;
+    private final Integer subscribePort;
+    private final Integer subscribeWorkerThreads;
+    private final Integer subscriberSendBuffer;
+    private final Boolean http2;
+    private final Integer http2MaxConcurrentStreams;
+    private final Integer http2InitialWindowSize;
+    private final String sslCertPath;
+    private final String sslKeyPath;
+    private final String sslKeyPass;
+    private final List<String> sslCiphers;
+    private final List<String> sslProtocols;
+    private final Integer sslSessionCacheSize;
+    private final Integer sslSessionTimeout;
+    private final Integer sslReloadInterval;
+    private final Boolean freshnessStamp;
+    private final Integer slowEventThreshold;
+    private final Integer slowEvents;
 
     public HttpProperties(Configuration config) {
         this.host = config.getString("host", "127.0.0.1");
@@ -36,6 +66,34 @@ public class HttpProperties {
         this.sendBuffer = config.getInteger("sendBuffer");
         this.receiveBuffer = config.getInteger("receiveBuffer");
         this.enableGzip = config.getBoolean("enableGzip", Boolean.TRUE);
+        this.replayCapacity = config.getInteger("replayCapacity", 16 * 1024 * 1024);
+        this.heartbeatInterval = config.getInteger("heartbeatInterval", 30);
+        this.writeTimeout = config.getInteger("writeTimeout", 60);
+        this.webSocketCompression = config.getBoolean("webSocketCompression", Boolean.TRUE);
+        this.snapshotPageSize = config.getInteger("snapshotPageSize", 500);
+        this.subscriberReceiveBuffer = config.getInteger("subscriberReceiveBuffer", 4096);
+        this.subscriberBufferBudget = config.getInteger("subscriberBufferBudget", 1024 * 1024);
+        this.epoll = config.getBoolean("epoll", Boolean.TRUE);
+        this.reusePort = config.getBoolean("reusePort", Boolean.FALSE);
+        this.bossThreads = config.getInteger("bossThreads", 1);
+        this.workerThreads = config.getInteger("workerThreads", 0);
+        this.subscribePort = config.getInteger("subscribePort");
+        this.subscribeWorkerThreads = config.getInteger("subscribeWorkerThreads", 0);
+        this.subscriberSendBuffer = config.getInteger("subscriberSendBuffer");
+        this.http2 = config.getBoolean("http2", Boolean.TRUE);
+        this.http2MaxConcurrentStreams = config.getInteger("http2MaxConcurrentStreams", 1000);
+        this.http2InitialWindowSize = config.getInteger("http2InitialWindowSize", 64 * 1024);
+        this.sslCertPath = config.getString("sslCertPath");
+        this.sslKeyPath = config.getString("sslKeyPath");
+        this.sslKeyPass = config.getString("sslKeyPass");
+        this.sslCiphers = config.getStrings("sslCiphers");
+        this.sslProtocols = config.getStrings("sslProtocols");
+        this.sslSessionCacheSize = config.getInteger("sslSessionCacheSize", 20480);
+        this.sslSessionTimeout = config.getInteger("sslSessionTimeout", 3600);
+        this.sslReloadInterval = config.getInteger("sslReloadInterval", 60);
+        this.freshnessStamp = config.getBoolean("freshnessStamp", Boolean.FALSE);
+        this.slowEventThreshold = config.getInteger("slowEventThreshold", 5000);
+        this.slowEvents = config.getInteger("slowEvents", 64);
     }
 
     public String getHost() {
@@ -86,6 +144,186 @@ public class HttpProperties {
         return enableGzip;
     }
 
+    public Integer getReplayCapacity() {
+        return replayCapacity;
+    }
+
+    /**
+     * Returns the seconds a subscriber may be write idle before a heartbeat is sent, 0 disables heartbeats.
+     */
+    public Integer getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Returns the seconds a heartbeat may stay unwritten before the subscriber is evicted.
+     */
+    public Integer getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public Boolean isWebSocketCompression() {
+        return webSocketCompression;
+    }
+
+    public Integer getSnapshotPageSize() {
+        return snapshotPageSize;
+    }
+
+    /**
+     * Returns the receive buffer size of subscriber sockets, which hardly read anything once subscribed.
+     */
+    public Integer getSubscriberReceiveBuffer() {
+        return subscriberReceiveBuffer;
+    }
+
+    /**
+     * Returns the maximum bytes of frames pending on a subscriber channel before it is evicted.
+     */
+    public Integer getSubscriberBufferBudget() {
+        return subscriberBufferBudget;
+    }
+
+    /**
+     * Returns whether to use the native epoll transport, which falls back to nio where it is unavailable.
+     */
+    public Boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * Returns whether to bind one acceptor per boss thread to the same port, so that the kernel balances the accepts,
+     * which requires epoll.
+     */
+    public Boolean isReusePort() {
+        return reusePort;
+    }
+
+    public Integer getBossThreads() {
+        return bossThreads;
+    }
+
+    /**
+     * Returns the number of worker threads, 0 for twice the number of processors.
+     */
+    public Integer getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Returns the port of subscribe traffic, which is served with publish traffic on {@link #getPort()} if null.
+     */
+    public Integer getSubscribePort() {
+        return subscribePort;
+    }
+
+    /**
+     * Returns the number of worker threads of the subscribe port, 0 for twice the number of processors.
+     */
+    public Integer getSubscribeWorkerThreads() {
+        return subscribeWorkerThreads;
+    }
+
+    /**
+     * Returns the send buffer size of sockets on the subscribe port.
+     */
+    public Integer getSubscriberSendBuffer() {
+        return subscriberSendBuffer;
+    }
+
+    /**
+     * Returns whether connections may switch to http/2, by prior knowledge or h2c upgrade.
+     */
+    public Boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Returns the maximum number of concurrent streams, which are subscriptions or requests, of a http/2 connection.
+     */
+    public Integer getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    /**
+     * Returns the initial flow control window of http/2 streams, the bytes in flight to a subscriber before it is backpressured.
+     */
+    public Integer getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    /**
+     * Returns the pem certificate chain of the server, tls is enabled if it is set.
+     */
+    public String getSslCertPath() {
+        return sslCertPath;
+    }
+
+    /**
+     * Returns the pem PKCS#8 private key of the server.
+     */
+    public String getSslKeyPath() {
+        return sslKeyPath;
+    }
+
+    public String getSslKeyPass() {
+        return sslKeyPass;
+    }
+
+    /**
+     * Returns the enabled cipher suites, the provider's defaults if null.
+     */
+    public List<String> getSslCiphers() {
+        return sslCiphers;
+    }
+
+    public List<String> getSslProtocols() {
+        return sslProtocols;
+    }
+
+    /**
+     * Returns the maximum number of sessions cached for resumption.
+     */
+    public Integer getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * Returns the seconds a cached session may be resumed.
+     */
+    public Integer getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * Returns the seconds between checks of the certificate and key files for changes, 0 disables reloading.
+     */
+    public Integer getSslReloadInterval() {
+        return sslReloadInterval;
+    }
+
+    /**
+     * Returns whether delivered events are stamped with the times of the object write and of the publishing,
+     * so that subscribers can measure their own lag.
+     */
+    public Boolean isFreshnessStamp() {
+        return freshnessStamp;
+    }
+
+    /**
+     * Returns the milliseconds from the object write beyond which an event is kept as a slow exemplar.
+     */
+    public Integer getSlowEventThreshold() {
+        return slowEventThreshold;
+    }
+
+    /**
+     * Returns the number of slow exemplars kept.
+     */
+    public Integer getSlowEvents() {
+        return slowEvents;
+    }
+
     @Override
     public String toString() {
         return "NettyProperties{" +
@@ -101,6 +339,33 @@ public class HttpProperties {
                 ", sendBuffer=" + sendBuffer +
                 ", receiveBuffer=" + receiveBuffer +
                 ", enableGzip=" + enableGzip +
+                ", replayCapacity=" + replayCapacity +
+                ", heartbeatInterval=" + heartbeatInterval +
+                ", writeTimeout=" + writeTimeout +
+                ", webSocketCompression=" + webSocketCompression +
+                ", snapshotPageSize=" + snapshotPageSize +
+                ", subscriberReceiveBuffer=" + subscriberReceiveBuffer +
+                ", subscriberBufferBudget=" + subscriberBufferBudget +
+                ", epoll=" + epoll +
+                ", reusePort=" + reusePort +
+                ", bossThreads=" + bossThreads +
+                ", workerThreads=" + workerThreads +
+                ", subscribePort=" + subscribePort +
+                ", subscribeWorkerThreads=" + subscribeWorkerThreads +
+                ", subscriberSendBuffer=" + subscriberSendBuffer +
+                ", http2=" + http2 +
+                ", http2MaxConcurrentStreams=" + http2MaxConcurrentStreams +
+                ", http2InitialWindowSize=" + http2InitialWindowSize +
+                ", sslCertPath='" + sslCertPath + '\'' +
+                ", sslKeyPath='" + sslKeyPath + '\'' +
+                ", sslCiphers=" + sslCiphers +
+                ", sslProtocols=" + sslProtocols +
+                ", sslSessionCacheSize=" + sslSessionCacheSize +
+                ", sslSessionTimeout=" + sslSessionTimeout +
+                ", sslReloadInterval=" + sslReloadInterval +
+                ", freshnessStamp=" + freshnessStamp +
+                ", slowEventThreshold=" + slowEventThreshold +
+                ", slowEvents=" + slowEvents +
                 '}';
     }
 }
@@ -3,20 +3,43 @@ package io.ceph.rgw.notification.netty;
 import io.ceph.rgw.client.ObjectClient;
 import io.ceph.rgw.client.config.Configuration;
 import io.ceph.rgw.client.util.AbstractClosable;
+import io.ceph.rgw.notification.cluster.Cluster;
 import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.ceph.rgw.notification.eventlog.EventLog;
+import io.ceph.rgw.notification.reconcile.Reconciler;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A http server based on netty.
+ * The native epoll transport is used on linux with edge-triggered I/O, nio elsewhere.
+ * With epoll, several acceptors may be bound to the port with SO_REUSEPORT, one per boss thread.
+ * <p>
+ * If a certificate is configured, both ports terminate tls, and the certificate is reloaded when its files change.
+ * <p>
+ * If a subscribe port is configured, subscribe traffic is served there by its own workers and pipeline,
+ * so that writes to subscribers never delay the acknowledgment of publishes.
  *
  * @author zhuangshuo
  * Created by zhuangshuo on 2020/5/19.
@@ -25,29 +48,88 @@ public class HttpServer extends AbstractClosable {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpServer.class);
     private final AtomicBoolean started;
     private final HttpProperties properties;
-    private final ServerBootstrap bootstrap;
+    private final boolean epoll;
+    private final boolean reusePort;
+    private final int acceptors;
     private final EventLoopGroup boss;
     private final EventLoopGroup workers;
-    private volatile ChannelFuture future;
+    private final EventLoopGroup subscribeWorkers;
+    private final ServerBootstrap bootstrap;
+    private final ServerBootstrap subscribeBootstrap;
+    private final List<Channel> channels;
+    private final TlsContext tls;
+    // rebuilding a context reads files and parses keys, which must not hold up accepting connections
+    private final ScheduledExecutorService tlsReloader;
+    private final NotificationHandler handler;
 
-    public HttpServer(Configuration config, ObjectClient objectClient, ESClient esClient) {
+    public HttpServer(Configuration config, ObjectClient objectClient, ESClient esClient, EventLog eventLog, Cluster cluster, Reconciler reconciler) throws SSLException {
         this.started = new AtomicBoolean(false);
         this.properties = new HttpProperties(config);
-        this.boss = new NioEventLoopGroup(1);
-        this.workers = new NioEventLoopGroup();
-        this.bootstrap = new ServerBootstrap();
-        this.bootstrap.group(boss, workers)
-                .channel(NioServerSocketChannel.class)
+        this.epoll = properties.isEpoll() && Epoll.isAvailable();
+        if (properties.isEpoll() && !epoll) {
+            LOGGER.warn("Epoll is unavailable, falling back to nio.", Epoll.unavailabilityCause());
+        }
+        this.reusePort = properties.isReusePort() && epoll;
+        if (properties.isReusePort() && !reusePort) {
+            LOGGER.warn("SO_REUSEPORT requires epoll, binding a single acceptor.");
+        }
+        this.acceptors = reusePort ? properties.getBossThreads() : 1;
+        this.channels = new ArrayList<>();
+        this.boss = newGroup(properties.getBossThreads(), "notification-boss");
+        this.tls = properties.getSslCertPath() == null ? null : new TlsContext(properties);
+        if (tls != null && properties.getSslReloadInterval() > 0) {
+            this.tlsReloader = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("notification-tls-reload", true));
+            tlsReloader.scheduleWithFixedDelay(tls::reload, properties.getSslReloadInterval(), properties.getSslReloadInterval(), TimeUnit.SECONDS);
+        } else {
+            this.tlsReloader = null;
+        }
+        this.handler = new NotificationHandler(properties, objectClient, esClient, eventLog, cluster, reconciler, tls);
+        if (properties.getSubscribePort() == null) {
+            this.workers = newGroup(properties.getWorkerThreads(), "notification-worker");
+            this.bootstrap = newBootstrap(workers)
+                    .childOption(ChannelOption.SO_SNDBUF, properties.getSendBuffer())
+                    .childOption(ChannelOption.SO_RCVBUF, properties.getReceiveBuffer())
+                    .childHandler(new HttpInitializer(properties, handler, Traffic.ALL, tls));
+            this.subscribeWorkers = null;
+            this.subscribeBootstrap = null;
+        } else {
+            this.workers = newGroup(properties.getWorkerThreads(), "notification-publish");
+            this.bootstrap = newBootstrap(workers)
+                    .childOption(ChannelOption.SO_SNDBUF, properties.getSendBuffer())
+                    .childOption(ChannelOption.SO_RCVBUF, properties.getReceiveBuffer())
+                    .childHandler(new HttpInitializer(properties, handler, Traffic.PUBLISH, tls));
+            this.subscribeWorkers = newGroup(properties.getSubscribeWorkerThreads(), "notification-subscribe");
+            this.subscribeBootstrap = newBootstrap(subscribeWorkers)
+                    .childOption(ChannelOption.SO_SNDBUF, properties.getSubscriberSendBuffer())
+                    .childOption(ChannelOption.SO_RCVBUF, properties.getSubscriberReceiveBuffer())
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(properties.getSubscriberBufferBudget() / 2, properties.getSubscriberBufferBudget()))
+                    .childHandler(new HttpInitializer(properties, handler, Traffic.SUBSCRIBE, tls));
+        }
+    }
+
+    private EventLoopGroup newGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private ServerBootstrap newBootstrap(EventLoopGroup workers) {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        if (epoll) {
+            bootstrap.channel(EpollServerSocketChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, reusePort)
+                    .option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        } else {
+            bootstrap.channel(NioServerSocketChannel.class);
+        }
+        return bootstrap.group(boss, workers)
                 .option(ChannelOption.SO_BACKLOG, properties.getBacklog())
                 .childOption(ChannelOption.SO_TIMEOUT, properties.getSocketTimeout())
                 .childOption(ChannelOption.TCP_NODELAY, properties.isNoDelay())
                 .childOption(ChannelOption.SO_LINGER, properties.getLinger())
                 .childOption(ChannelOption.SO_KEEPALIVE, properties.isKeepAlive())
                 .childOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, properties.getConnectionTimeout())
-                .childOption(ChannelOption.SO_REUSEADDR, properties.isReuseAddr())
-                .childOption(ChannelOption.SO_SNDBUF, properties.getSendBuffer())
-                .childOption(ChannelOption.SO_RCVBUF, properties.getReceiveBuffer())
-                .childHandler(new HttpInitializer(properties, objectClient, esClient));
+                .childOption(ChannelOption.SO_REUSEADDR, properties.isReuseAddr());
     }
 
     private boolean notStarted() {
@@ -57,8 +139,11 @@ public class HttpServer extends AbstractClosable {
     public void start() {
         if (notStarted()) {
             try {
-                future = bootstrap.bind(properties.getHost(), properties.getPort()).sync();
-                LOGGER.info("HttpServer started.");
+                bind(bootstrap, properties.getPort());
+                if (subscribeBootstrap != null) {
+                    bind(subscribeBootstrap, properties.getSubscribePort());
+                }
+                LOGGER.info("HttpServer started with [{}] acceptors per port on [{}].", acceptors, bootstrap.config().channelFactory());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 LOGGER.error("HttpServer interrupted while binding.", e);
@@ -67,15 +152,26 @@ public class HttpServer extends AbstractClosable {
         }
     }
 
+    private void bind(ServerBootstrap bootstrap, int port) throws InterruptedException {
+        // every bind registers a server channel on the next boss thread
+        for (int i = 0; i < acceptors; i++) {
+            channels.add(bootstrap.bind(properties.getHost(), port).sync().channel());
+        }
+    }
+
     @Override
     protected void doClose() {
-        if (future != null) {
+        for (Channel channel : channels) {
             try {
-                future.channel().close().sync();
+                channel.close().sync();
             } catch (Throwable throwable) {
-                LOGGER.error("Failed to close server future.", throwable);
+                LOGGER.error("Failed to close server channel.", throwable);
             }
         }
+        handler.close();
+        if (tlsReloader != null) {
+            tlsReloader.shutdownNow();
+        }
         if (boss != null) {
             try {
                 boss.shutdownGracefully().sync();
@@ -90,6 +186,13 @@ public class HttpServer extends AbstractClosable {
                 LOGGER.error("Failed to close worker group.", throwable);
             }
         }
+        if (subscribeWorkers != null) {
+            try {
+                subscribeWorkers.shutdownGracefully().sync();
+            } catch (Throwable throwable) {
+                LOGGER.error("Failed to close subscribe worker group.", throwable);
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,206 @@
+package io.ceph.rgw.notification.netty;
+
+import io.ceph.rgw.notification.cluster.Routes;
+import io.ceph.rgw.notification.metrics.Metrics;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpAnd;
+import org.springframework.expression.spel.ast.OpEQ;
+import org.springframework.expression.spel.ast.OpOr;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An immutable subscription condition, evaluated against object metadata.
+ * Matchers are cached by their conditions and evaluated with a shared context and an explicit root object,
+ * so that subscribers of the same condition share one instance, and it is evaluated once per event.
+ * Cached matchers are counted by their subscribers, and removed once the last one has released them.
+ * Matchers count their evaluations and the time spent in them, which is the cost shared by their subscribers.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/26.
+ */
+final class Matcher {
+    private static final int MAX_CACHED = 1024;
+    private static final ExpressionParser PARSER = new SpelExpressionParser();
+    private static final StandardEvaluationContext CONTEXT = new StandardEvaluationContext();
+    private static final ConcurrentMap<String, Matcher> CACHE = new ConcurrentHashMap<>();
+    private static final int MAX_ROUTES = 64;
+    private final String condition;
+    private final Expression expression;
+    private final Set<String> routes;
+    private final LongAdder evaluations;
+    private final LongAdder evaluationNanos;
+    // guarded by the cache entry
+    private int references;
+
+    static {
+        // initializes the lazy accessors and resolvers, the context is only read afterwards
+        CONTEXT.getPropertyAccessors();
+        CONTEXT.getConstructorResolvers();
+        CONTEXT.getMethodResolvers();
+        CONTEXT.getTypeLocator();
+    }
+
+    private Matcher(String condition, Expression expression) {
+        this.condition = condition;
+        this.expression = expression;
+        Set<String> routes = expression instanceof SpelExpression ? routes(((SpelExpression) expression).getAST()) : null;
+        this.routes = routes == null ? Collections.singleton(Routes.WILDCARD) : Collections.unmodifiableSet(routes);
+        this.evaluations = new LongAdder();
+        this.evaluationNanos = new LongAdder();
+    }
+
+    /**
+     * Returns the matcher of a condition, which must not be true for empty metadata, to be released by the caller.
+     *
+     * @throws ParseException           if the condition cannot be parsed
+     * @throws IllegalArgumentException if the condition is invalid
+     */
+    static Matcher of(String condition) {
+        Matcher matcher = CACHE.computeIfPresent(condition, (c, m) -> m.retain());
+        if (matcher != null) {
+            return matcher;
+        }
+        Expression expression = PARSER.parseExpression(condition);
+        try {
+            Boolean value = expression.getValue(CONTEXT, Collections.emptyMap(), Boolean.class);
+            if (value == null || value == Boolean.TRUE) {
+                throw new IllegalArgumentException("invalid condition: " + condition);
+            }
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalArgumentException("invalid condition: " + condition, e);
+        } catch (SpelEvaluationException ignore) {
+        }
+        Matcher created = new Matcher(condition, expression);
+        if (CACHE.size() < MAX_CACHED) {
+            return CACHE.compute(condition, (c, m) -> (m == null ? created : m).retain());
+        }
+        return created;
+    }
+
+    private Matcher retain() {
+        references++;
+        return this;
+    }
+
+    /**
+     * Releases the matcher, which is removed from the cache along with its counts when no subscriber holds it any more.
+     */
+    void release() {
+        CACHE.computeIfPresent(condition, (c, m) -> m != this || --m.references > 0 ? m : null);
+    }
+
+    boolean matches(Map<String, String> metadata) {
+        long start = System.nanoTime();
+        try {
+            return Boolean.TRUE.equals(expression.getValue(CONTEXT, metadata, Boolean.class));
+        } catch (EvaluationException e) {
+            return false;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            evaluations.increment();
+            evaluationNanos.add(nanos);
+            Metrics.MATCHING.record(nanos);
+        }
+    }
+
+    long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    long getEvaluationNanos() {
+        return evaluationNanos.sum();
+    }
+
+    /**
+     * Returns the cluster routes of the condition, at least one of which holds for any metadata it matches.
+     */
+    Set<String> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Returns the routes a node implies, or null if it implies none.
+     * An and implies the routes of either side, an or implies the routes of both sides.
+     */
+    private static Set<String> routes(SpelNode node) {
+        if (node instanceof OpAnd) {
+            Set<String> left = routes(node.getChild(0));
+            Set<String> right = routes(node.getChild(1));
+            if (left == null || right == null) {
+                return left == null ? right : left;
+            }
+            return left.size() <= right.size() ? left : right;
+        }
+        if (node instanceof OpOr) {
+            Set<String> left = routes(node.getChild(0));
+            Set<String> right = routes(node.getChild(1));
+            if (left == null || right == null || left.size() + right.size() > MAX_ROUTES) {
+                return null;
+            }
+            left.addAll(right);
+            return left;
+        }
+        if (node instanceof OpEQ) {
+            String key = key(node.getChild(0));
+            String value = literal(node.getChild(1));
+            if (key == null || value == null) {
+                key = key(node.getChild(1));
+                value = literal(node.getChild(0));
+            }
+            return key == null || value == null ? null : new HashSet<>(Collections.singleton(Routes.equal(key, value)));
+        }
+        // ['key'].startsWith('prefix')
+        if (node instanceof CompoundExpression && node.getChildCount() == 2 && node.getChild(1) instanceof MethodReference) {
+            MethodReference method = (MethodReference) node.getChild(1);
+            String key = key(node.getChild(0));
+            String prefix = method.getChildCount() == 1 ? literal(method.getChild(0)) : null;
+            if ("startsWith".equals(method.getName()) && key != null && prefix != null) {
+                return new HashSet<>(Collections.singleton(Routes.prefix(key, prefix)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the metadata key of an indexer on the root map, like ['key'] or [key].
+     */
+    private static String key(SpelNode node) {
+        if (!(node instanceof Indexer) || node.getChildCount() != 1) {
+            return null;
+        }
+        SpelNode index = node.getChild(0);
+        if (index instanceof PropertyOrFieldReference) {
+            return ((PropertyOrFieldReference) index).getName();
+        }
+        return literal(index);
+    }
+
+    private static String literal(SpelNode node) {
+        return node instanceof StringLiteral ? (String) ((StringLiteral) node).getLiteralValue().getValue() : null;
+    }
+
+    @Override
+    public String toString() {
+        return condition;
+    }
+}
@@ -13,19 +13,42 @@ import io.ceph.rgw.client.model.GetObjectInfoResponse;
 import io.ceph.rgw.client.model.Metadata;
 import io.ceph.rgw.client.model.notification.ObjectInfo;
 import io.ceph.rgw.client.model.notification.ObjectMetadataInfo;
+import io.ceph.rgw.notification.cluster.Cluster;
+import io.ceph.rgw.notification.cluster.PeerEvent;
+import io.ceph.rgw.notification.cluster.Routes;
 import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.ceph.rgw.notification.eventlog.EventLog;
+import io.ceph.rgw.notification.metrics.EventTimeline;
+import io.ceph.rgw.notification.metrics.FanOutEvent;
+import io.ceph.rgw.notification.metrics.FlightEvents;
+import io.ceph.rgw.notification.metrics.Metrics;
+import io.ceph.rgw.notification.metrics.ObjectLookupEvent;
+import io.ceph.rgw.notification.metrics.PublishRequestEvent;
+import io.ceph.rgw.notification.metrics.SlowEvents;
 import io.ceph.rgw.notification.model.ObjectEvent;
 import io.ceph.rgw.notification.model.ObjectEvents;
+import io.ceph.rgw.notification.reconcile.Reconciler;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufHolder;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.AttributeKey;
 import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.apache.commons.codec.binary.Base64;
@@ -34,21 +57,27 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.expression.EvaluationException;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParseException;
-import org.springframework.expression.spel.SpelEvaluationException;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Accepts publish notifications from Ceph Rados gateway.
@@ -61,22 +90,43 @@ import java.util.Objects;
 public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificationHandler.class);
     private static final byte[] INTRO = "Rados gateway notification broadcasting service.".getBytes(CharsetUtil.UTF_8);
-    private static final byte[] LINE_SEPARATOR = "\r\n".getBytes(CharsetUtil.US_ASCII);
-    private static final ExpressionParser PARSER;
+    private static final String SEQUENCE_HEADER = "X-Notification-Sequence";
+    private static final String NEXT_OFFSET_HEADER = "X-Log-Next-Offset";
+    private static final String FIRST_OFFSET_HEADER = "X-Log-First-Offset";
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    private static final String EVENT_STREAM = "text/event-stream";
+    private static final int CLOSE_STATUS_GONE = 4410;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_LINGER_MS = 10000;
+    private static final int LOG_CHUNK_SIZE = 64 * 1024;
     private static final ChannelGroup SUB_CHANNELS;
-    private static final AttributeKey<Expression> EXPRESSION_KEY;
-    private static final AttributeKey<StandardEvaluationContext> CONTEXT_KEY;
-    private static final ObjectMapper MAPPER;
+    static final AttributeKey<Subscription> SUBSCRIPTION_KEY;
+    static final AttributeKey<Traffic> TRAFFIC_KEY;
+    static final ObjectMapper MAPPER;
     private final ESClient esClient;
     private final ObjectClient objectClient;
+    private final EventLog eventLog;
+    private final Cluster cluster;
+    private final Reconciler reconciler;
+    private final TlsContext tls;
     private final ByteBuf content;
-    private final ByteBuf lineSep;
+    private final ReplayBuffer replayBuffer;
+    // the only thread fanning out events and changing the flow control state of subscriptions
+    private final ExecutorService fanOutExecutor;
+    private final WebSocketFrameHandler webSocketHandler;
+    private final int snapshotPageSize;
+    private final Heartbeats heartbeats;
+    private final Integer subscriberReceiveBuffer;
+    private final int subscriberBufferBudget;
+    private final boolean freshnessStamp;
+    private final boolean enableGzip;
+    private final SlowEvents slowEvents;
 
     static {
-        PARSER = new SpelExpressionParser();
         SUB_CHANNELS = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
-        EXPRESSION_KEY = AttributeKey.newInstance("expression");
-        CONTEXT_KEY = AttributeKey.newInstance("context");
+        Metrics.gauge("notification_subscribers", "Connected subscribers.", SUB_CHANNELS::size);
+        SUBSCRIPTION_KEY = AttributeKey.newInstance("subscription");
+        TRAFFIC_KEY = AttributeKey.newInstance("traffic");
         MAPPER = new ObjectMapper();
         MAPPER.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
                 .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
@@ -85,13 +135,53 @@ public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpReq
                 .setDateFormat(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSSSS'Z'"));
     }
 
-    NotificationHandler(ObjectClient objectClient, ESClient esClient) {
+    NotificationHandler(HttpProperties properties, ObjectClient objectClient, ESClient esClient, EventLog eventLog, Cluster cluster, Reconciler reconciler, TlsContext tls) {
         this.objectClient = Objects.requireNonNull(objectClient);
         this.esClient = Objects.requireNonNull(esClient);
+        this.eventLog = eventLog;
+        this.cluster = cluster;
+        this.reconciler = reconciler;
+        this.tls = tls;
         this.content = PooledByteBufAllocator.DEFAULT.heapBuffer(INTRO.length, INTRO.length);
         this.content.writeBytes(INTRO);
-        this.lineSep = PooledByteBufAllocator.DEFAULT.heapBuffer(LINE_SEPARATOR.length, LINE_SEPARATOR.length);
-        this.lineSep.writeBytes(LINE_SEPARATOR);
+        this.replayBuffer = new ReplayBuffer(properties.getReplayCapacity());
+        if (eventLog != null) {
+            replayBuffer.seed(eventLog.lastOffset());
+        }
+        this.fanOutExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("notification-fan-out"));
+        this.webSocketHandler = new WebSocketFrameHandler(this);
+        if (cluster != null) {
+            cluster.listen(e -> publish(PooledByteBufAllocator.DEFAULT, e.getId(), e.getMetadata(), e.getBody(), e.getEventTime()));
+            if (eventLog != null) {
+                // the event log keeps every event, whether or not a subscriber here matches it
+                cluster.subscribed(Collections.singleton(Routes.WILDCARD));
+            }
+        }
+        this.snapshotPageSize = properties.getSnapshotPageSize();
+        this.subscriberReceiveBuffer = properties.getSubscriberReceiveBuffer();
+        this.subscriberBufferBudget = properties.getSubscriberBufferBudget();
+        this.freshnessStamp = properties.isFreshnessStamp();
+        this.enableGzip = Boolean.TRUE.equals(properties.isEnableGzip());
+        this.slowEvents = new SlowEvents(properties.getSlowEventThreshold(), properties.getSlowEvents());
+        this.heartbeats = new Heartbeats(TimeUnit.SECONDS.toMillis(properties.getHeartbeatInterval()), TimeUnit.SECONDS.toMillis(properties.getWriteTimeout()));
+        if (reconciler != null) {
+            // documents are serialized as those of the events, checkpoints are resumed on the reconciler's control thread
+            reconciler.start(MAPPER);
+        }
+    }
+
+    /**
+     * Stops the fan-out thread after the events submitted to it, once the channels are closed.
+     */
+    void close() {
+        fanOutExecutor.shutdown();
+        try {
+            if (!fanOutExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out waiting for fan-out thread.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private static ByteBuf writeContent(ChannelHandlerContext ctx, String content) {
@@ -106,12 +196,44 @@ public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpReq
         }
         URI uri = new URI(request.uri());
         String p = uri.getPath();
+        Traffic traffic = ctx.channel().attr(TRAFFIC_KEY).get();
+        if (traffic != null && !traffic.accepts(p)) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Unsupported uri path on this port")));
+            return;
+        }
         switch (p) {
             case "/publish":
                 handlePublish(ctx, request);
                 break;
             case "/subscribe":
-                handleSubscribe(ctx, request, uri);
+                handleSubscribe(ctx, request, uri, Transport.CHUNKED);
+                break;
+            case "/subscribe/sse":
+                handleSubscribe(ctx, request, uri, Transport.SSE);
+                break;
+            case "/subscribe/ws":
+                handleSubscribe(ctx, request, uri, Transport.WEBSOCKET);
+                break;
+            case "/log":
+                handleLog(ctx, request, uri);
+                break;
+            case "/admin/peers":
+                handlePeers(ctx, request);
+                break;
+            case "/admin/subscribers":
+                handleSubscribers(ctx, request, uri);
+                break;
+            case "/admin/tls":
+                handleTls(ctx, request);
+                break;
+            case "/admin/slow-events":
+                handleSlowEvents(ctx, request);
+                break;
+            case "/admin/reconcile":
+                handleReconcile(ctx, request, uri);
+                break;
+            case "/metrics":
+                handleMetrics(ctx, request);
                 break;
             case "/":
                 DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content.retainedDuplicate());
@@ -129,16 +251,27 @@ public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpReq
             return;
         }
         byte[] content = ByteBufUtil.getBytes(request.content());
+        long receivedTime = System.currentTimeMillis();
+        PublishRequestEvent flight = FlightEvents.AVAILABLE ? PublishRequestEvent.start(content.length) : null;
         try {
+            long start = System.nanoTime();
             ObjectEvents events = MAPPER.readValue(content, ObjectEvents.class);
+            Metrics.PUBLISH_DECODE.recordSince(start);
             for (ObjectEvent event : events.getEvents()) {
                 LOGGER.debug("Received object event [{}].", event);
+                Metrics.event(event.getEvent());
                 switch (event.getEvent()) {
                     case OBJECT_CREATE:
-                        objectCreated(ctx, event);
+                        if (flight != null) {
+                            flight.received(event.getInfo().getBucket().getName(), true);
+                        }
+                        objectCreated(ctx, event, receivedTime);
                         break;
                     case OBJECT_DELETE:
-                        objectDeleted(event);
+                        if (flight != null) {
+                            flight.received(event.getInfo().getBucket().getName(), false);
+                        }
+                        objectDeleted(event, receivedTime);
                         break;
                     default:
                         LOGGER.info("Received object event type [{}].", event.getEvent());
@@ -147,61 +280,199 @@ public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpReq
         } catch (IOException e) {
             LOGGER.error("Failed to deserialize content [{}].", new String(content), e);
         } finally {
-            DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
+            // a http/2 stream is only ended by a final status
+            DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    ctx.channel() instanceof Http2StreamChannel ? HttpResponseStatus.OK : HttpResponseStatus.CONTINUE);
 //            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
             sendHttpResponse(ctx, request, response);
+            if (flight != null) {
+                flight.complete();
+            }
         }
     }
 
-    private void objectCreated(ChannelHandlerContext ctx, ObjectEvent event) {
+    private void objectCreated(ChannelHandlerContext ctx, ObjectEvent event, long receivedTime) {
         ObjectInfo info = event.getInfo();
+        EventTimeline timeline = timeline(event, receivedTime, 2);
+        long start = System.nanoTime();
+        Metrics.LOOKUPS_IN_FLIGHT.increment();
+        ObjectLookupEvent flight = FlightEvents.AVAILABLE ? ObjectLookupEvent.start(info.getBucket().getName(), info.getKey().getName()) : null;
         objectClient.prepareGetObjectInfo()
                 .withBucketName(info.getBucket().getName())
                 .withKey(info.getKey().getName())
                 .execute(new ActionListener<GetObjectInfoResponse>() {
                     @Override
                     public void onSuccess(GetObjectInfoResponse response) {
+                        Metrics.LOOKUPS_IN_FLIGHT.decrement();
+                        Metrics.OBJECT_INFO_LOOKUP.recordSince(start);
+                        if (flight != null) {
+                            flight.complete(true);
+                        }
+                        timeline.lookedUp();
                         LOGGER.debug("Get object info: [{}].", response);
                         Metadata metadata = response.getMetadata();
                         ObjectMetadataInfo objectInfo = new ObjectMetadataInfo(info, metadata);
                         byte[] bytes;
                         try {
+                            long serializeStart = System.nanoTime();
                             bytes = MAPPER.writeValueAsBytes(objectInfo);
+                            Metrics.SERIALIZATION.recordSince(serializeStart);
+                            timeline.serialized();
                         } catch (JsonProcessingException e) {
                             LOGGER.error("Failed to serialize object info [{}].", objectInfo, e);
+                            timeline.failed();
                             return;
                         }
-                        esClient.insert(objectInfo.getInfo().getBucket().getName() + "." + objectInfo.getInfo().getKey().getName(), bytes);
-                        ByteBuf message = ctx.alloc().heapBuffer(bytes.length, bytes.length)
-                                .writeBytes(bytes);
-                        bytes = Integer.toString(bytes.length).getBytes(CharsetUtil.US_ASCII);
-                        ByteBuf len = ctx.alloc().heapBuffer(bytes.length, bytes.length)
-                                .writeBytes(bytes);
-                        CompositeByteBuf buf = new CompositeByteBuf(ctx.alloc(), false, 4);
-                        buf.addComponents(true, len, lineSep.retainedDuplicate(), message, lineSep.retainedDuplicate());
-                        DuplicatedHttpChunkedInput input = new DuplicatedHttpChunkedInput(buf);
-                        SUB_CHANNELS.writeAndFlush(input, channel -> {
-                            Expression expression = channel.attr(EXPRESSION_KEY).get();
-                            StandardEvaluationContext context = channel.attr(CONTEXT_KEY).get();
-                            context.setRootObject(metadata.all());
-                            try {
-                                return expression.getValue(context, Boolean.class);
-                            } catch (EvaluationException e) {
-                                return false;
-                            }
-                        }).addListener(NotificationHandler::logFailedListener);
+                        String id = objectInfo.getInfo().getBucket().getName() + "." + objectInfo.getInfo().getKey().getName();
+                        esClient.insert(id, bytes, timeline);
+                        Map<String, String> all = metadata.all();
+                        publish(ctx.alloc(), id, all, bytes, timeline.getEventTime());
+                        timeline.published();
+                        if (cluster != null) {
+                            cluster.broadcast(new PeerEvent(id, all, bytes, timeline.getEventTime(), System.currentTimeMillis()));
+                        }
                     }
 
                     @Override
                     public void onFailure(Throwable cause) {
+                        Metrics.LOOKUPS_IN_FLIGHT.decrement();
+                        if (flight != null) {
+                            flight.complete(false);
+                        }
+                        timeline.failed();
                         LOGGER.error("Failed to get object[{}]/[{}] info.", info.getBucket().getName(), info.getKey().getName(), cause);
                     }
                 });
     }
 
-    private void objectDeleted(ObjectEvent event) {
+    /**
+     * Starts the timeline of an event, which is complete after the stages.
+     */
+    private EventTimeline timeline(ObjectEvent event, long receivedTime, int stages) {
         ObjectInfo info = event.getInfo();
-        esClient.delete(info.getBucket().getName(), info.getKey().getName());
+        return new EventTimeline(info.getBucket().getName(), info.getKey().getName(),
+                event.getTimestamp() == null ? -1 : event.getTimestamp().getTime(), receivedTime, stages, slowEvents);
+    }
+
+    /**
+     * Publishes an event to the subscribers of this node, the event time is negative if unknown.
+     */
+    private void publish(ByteBufAllocator alloc, String id, Map<String, String> metadata, byte[] bytes, long eventTime) {
+        // only sequence assignment and appending hold the replay buffer lock, events are submitted in sequence order
+        // to the fan-out thread, which never blocks publishers or event loops
+        synchronized (replayBuffer) {
+            long sequence = replayBuffer.nextSequence();
+            ByteBuf buf = freshnessStamp ? FrameEncoder.encode(alloc, sequence, eventTime, System.currentTimeMillis(), bytes)
+                    : FrameEncoder.encode(alloc, sequence, bytes);
+            replayBuffer.append(sequence, id, metadata, buf.retain());
+            if (eventLog != null) {
+                eventLog.append(sequence, buf.retainedDuplicate());
+            }
+            FanOutEvent flight = FlightEvents.AVAILABLE ? FanOutEvent.start(id, sequence, buf.readableBytes()) : null;
+            EventFrames frames = new EventFrames(alloc, MAPPER, sequence, buf);
+            try {
+                fanOutExecutor.execute(() -> fanOut(frames, metadata, flight));
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("Fan-out stopped, discard event [{}].", sequence);
+                frames.release();
+            }
+        }
+    }
+
+    /**
+     * Runs a task changing a subscription on the fan-out thread, ordered with the events fanned out to it.
+     */
+    private void onFanOutThread(Channel ch, Runnable task) {
+        try {
+            fanOutExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            ch.close();
+        }
+    }
+
+    /**
+     * Writes the event to every subscriber whose condition matches, then releases the frames.
+     * The flight recorder event is null unless it is enabled.
+     */
+    private static void fanOut(EventFrames frames, Map<String, String> metadata, FanOutEvent flight) {
+        // subscribers mostly share a few conditions, each one is evaluated once per event
+        Map<Matcher, Boolean> matches = new IdentityHashMap<>();
+        long start = System.nanoTime();
+        try {
+            for (Channel channel : SUB_CHANNELS) {
+                Subscription subscription = channel.attr(SUBSCRIPTION_KEY).get();
+                if (subscription == null || frames.getSequence() <= subscription.getReplayed()) {
+                    // queued before the subscriber registered, and replayed to it already
+                    continue;
+                }
+                Boolean matched = matches.get(subscription.getMatcher());
+                if (matched == null) {
+                    long evaluationStart = flight == null ? 0 : System.nanoTime();
+                    matched = subscription.getMatcher().matches(metadata);
+                    matches.put(subscription.getMatcher(), matched);
+                    if (flight != null) {
+                        flight.evaluated(System.nanoTime() - evaluationStart);
+                    }
+                }
+                if (flight != null) {
+                    flight.subscriber();
+                }
+                subscription.getMetrics().evaluated(matched);
+                if (!matched) {
+                    continue;
+                }
+                if (flight != null) {
+                    flight.matched();
+                }
+                if (!channel.isWritable()) {
+                    LOGGER.warn("Subscriber [{}] exceeds its buffer budget, evicted.", channel.remoteAddress());
+                    channel.close();
+                    continue;
+                }
+                if (!subscription.acquire(frames.getSequence())) {
+                    // a paused subscriber catches up from the replay buffer once granted credits
+                    continue;
+                }
+                ByteBuf frame;
+                try {
+                    frame = frames.get(subscription.getVariant());
+                } catch (IOException e) {
+                    LOGGER.error("Failed to encode frame for subscription [{}].", subscription, e);
+                    continue;
+                }
+                write(channel, subscription, subscription.getVariant().getTransport().wrap(frame.retainedDuplicate()), true);
+                if (flight != null) {
+                    flight.written(frame.readableBytes());
+                }
+            }
+        } finally {
+            frames.release();
+            Metrics.FAN_OUT.recordSince(start);
+            if (flight != null) {
+                flight.complete();
+            }
+        }
+    }
+
+    /**
+     * Writes a message to a subscriber and counts it, one write at a time is timed until it reaches the socket.
+     */
+    private static void write(Channel ch, Subscription subscription, Object message, boolean flush) {
+        subscription.written();
+        SubscriberMetrics metrics = subscription.getMetrics();
+        int bytes = message instanceof ByteBufHolder ? ((ByteBufHolder) message).content().readableBytes() : 0;
+        boolean timed = metrics.startProbe();
+        ChannelFuture f = flush ? ch.writeAndFlush(message) : ch.write(message);
+        f.addListener(NotificationHandler::logFailedListener);
+        if (timed) {
+            f.addListener(metrics);
+        }
+        metrics.written(bytes);
+    }
+
+    private void objectDeleted(ObjectEvent event, long receivedTime) {
+        ObjectInfo info = event.getInfo();
+        esClient.delete(info.getBucket().getName(), info.getKey().getName(), timeline(event, receivedTime, 1));
     }
 
     private static void logFailedListener(Future<? super Void> future) throws Exception {
@@ -212,50 +483,652 @@ public class NotificationHandler extends SimpleChannelInboundHandler<FullHttpReq
 
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
-    private void handleSubscribe(ChannelHandlerContext ctx, FullHttpRequest request, URI uri) {
+    private void handleSubscribe(ChannelHandlerContext ctx, FullHttpRequest request, URI uri, Transport transport) {
         if (request.method() != HttpMethod.GET) {
             sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
             return;
         }
         Channel ch = ctx.channel();
+        String accept = request.headers().get(HttpHeaderNames.ACCEPT);
+        if (transport == Transport.CHUNKED && accept != null && accept.contains(EVENT_STREAM)) {
+            transport = Transport.SSE;
+        }
         List<NameValuePair> pairs = URLEncodedUtils.parse(uri.getQuery(), UTF8);
-        String condition = pairs.stream().filter(p -> "condition".equals(p.getName())).map(NameValuePair::getValue).findAny().orElse(null);
+        String condition = getParameter(pairs, "condition", null);
         if (StringUtils.isBlank(condition)) {
             sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Condition cannot be empty string")));
             return;
         }
+        long lastSequence;
+        int maxBatch;
+        int maxLingerMs;
+        long credits;
+        try {
+            String sequence = getParameter(pairs, "sequence", null);
+            if (sequence == null && transport == Transport.SSE) {
+                sequence = request.headers().get(LAST_EVENT_ID_HEADER);
+            }
+            lastSequence = sequence == null ? -1 : Long.parseLong(sequence);
+            maxBatch = Integer.parseInt(getParameter(pairs, "maxBatch", "1"));
+            maxLingerMs = Integer.parseInt(getParameter(pairs, "maxLingerMs", "10"));
+            credits = Long.parseLong(getParameter(pairs, "credits", "-1"));
+        } catch (NumberFormatException e) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid sequence, batch or credits parameters")));
+            return;
+        }
+        if (maxBatch < 1 || maxBatch > MAX_BATCH || maxLingerMs < 0 || maxLingerMs > MAX_LINGER_MS) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Batch parameters out of range")));
+            return;
+        }
+        if (credits >= 0 && transport != Transport.WEBSOCKET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Credits are only supported by websocket")));
+            return;
+        }
+        String compression = getParameter(pairs, "compression", null);
+        boolean identity = HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(compression);
+        if (compression != null && !identity && (!HttpHeaderValues.GZIP.contentEqualsIgnoreCase(compression) || transport == Transport.WEBSOCKET)) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Unsupported compression")));
+            return;
+        }
+        boolean acceptsGzip = acceptsGzip(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+        if (compression != null && !identity && !acceptsGzip) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_ACCEPTABLE, writeContent(ctx, "Gzip is not an accepted encoding")));
+            return;
+        }
+        // the content compressor is removed from subscriber channels, streams are compressed once per event instead
+        // for clients accepting gzip, unless they ask for identity
+        boolean gzip = transport != Transport.WEBSOCKET && (compression == null ? enableGzip && acceptsGzip : !identity);
+        boolean snapshot = Boolean.parseBoolean(getParameter(pairs, "snapshot", "false"));
+        if (snapshot && (lastSequence >= 0 || credits >= 0)) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Snapshot cannot be combined with sequence or credits")));
+            return;
+        }
+        FrameFormat format;
+        try {
+            format = FrameFormat.negotiate(getParameter(pairs, "format", null), transport == Transport.SSE ? null : accept);
+        } catch (IllegalArgumentException e) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Unsupported format")));
+            return;
+        }
+        if (format.isBinary() && transport == Transport.SSE) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Server-sent events only support json")));
+            return;
+        }
+        WebSocketServerHandshaker handshaker = null;
+        if (transport == Transport.WEBSOCKET && ch instanceof Http2StreamChannel) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Websocket is not supported over http/2")));
+            return;
+        }
+        if (transport == Transport.WEBSOCKET) {
+            // the scheme follows the connection the upgrade request arrived on
+            String location = (ch.pipeline().get(SslHandler.class) == null ? "ws://" : "wss://") + request.headers().get(HttpHeaderNames.HOST) + uri.getPath();
+            handshaker = new WebSocketServerHandshakerFactory(location, null, true).newHandshaker(request);
+            if (handshaker == null) {
+                WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ch);
+                return;
+            }
+        }
         condition = new String(Base64.decodeBase64(condition));
         LOGGER.debug("Received subscription from [{}], condition [{}].", ch.remoteAddress(), condition);
-        Expression expression;
+        Matcher matcher;
         try {
-            expression = PARSER.parseExpression(condition);
+            matcher = Matcher.of(condition);
         } catch (ParseException e) {
             LOGGER.error("Failed to parse expression[{}].", condition, e);
             sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Failed to parse expression")));
             return;
+        } catch (IllegalArgumentException e) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid expression")));
+            return;
+        }
+        // cached conditions and projections are released by the subscription once its channel is closed
+        String fields = getParameter(pairs, "fields", null);
+        Projection projection = null;
+        if (fields != null) {
+            try {
+                projection = Projection.of(fields);
+            } catch (IllegalArgumentException e) {
+                matcher.release();
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid fields")));
+                return;
+            }
+        }
+        // chunked subscribers opt in to empty frames as heartbeats, which existing clients may not expect
+        Subscription subscription = new Subscription(matcher, FrameVariant.of(format, projection, gzip, transport), credits,
+                Boolean.parseBoolean(getParameter(pairs, "heartbeat", "false")));
+        ch.attr(SUBSCRIPTION_KEY).set(subscription);
+        ch.closeFuture().addListener(f -> subscription.release());
+        slim(ch, transport);
+        if (transport == Transport.WEBSOCKET) {
+            ch.pipeline().addLast(webSocketHandler);
+        } else if (maxBatch > 1) {
+            ch.pipeline().addLast(new FrameBatcher(maxBatch, maxLingerMs));
+        }
+        // registered on the fan-out thread, so that no live frame reaches the subscriber before its response and replay
+        WebSocketServerHandshaker ws = handshaker;
+        request.retain();
+        onFanOutThread(ch, () -> subscribe(ctx, request, ch, subscription, ws, lastSequence, snapshot, format, gzip));
+    }
+
+    /**
+     * Registers a subscriber on the fan-out thread, then responds and replays on the channel's event loop,
+     * ahead of the frames fanned out after the registration, which reach the event loop after it.
+     */
+    private void subscribe(ChannelHandlerContext ctx, FullHttpRequest request, Channel ch, Subscription subscription, WebSocketServerHandshaker handshaker,
+                           long lastSequence, boolean snapshot, FrameFormat format, boolean gzip) {
+        Transport transport = subscription.getVariant().getTransport();
+        long sequence;
+        List<Object> messages;
+        synchronized (replayBuffer) {
+            if (lastSequence >= 0 && !replayBuffer.canReplay(lastSequence)) {
+                ch.eventLoop().execute(() -> {
+                    try {
+                        sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.GONE, writeContent(ctx, "Sequence is no longer available")));
+                    } finally {
+                        request.release();
+                    }
+                });
+                return;
+            }
+            // events up to here are replayed or predate the subscription, those submitted since are skipped by the fan-out
+            sequence = replayBuffer.lastSequence();
+            subscription.setReplayed(sequence);
+            messages = lastSequence >= 0 ? replay(ch, subscription, lastSequence) : Collections.emptyList();
+            if (!snapshot) {
+                SUB_CHANNELS.add(ch);
+            }
+        }
+        ch.eventLoop().execute(() -> {
+            try {
+                heartbeats.watch(ch, subscription);
+                if (cluster != null) {
+                    // peers forward only events matching the routes of the subscribers here
+                    Set<String> routes = subscription.getMatcher().getRoutes();
+                    cluster.subscribed(routes);
+                    ch.closeFuture().addListener(f -> cluster.unsubscribed(routes));
+                }
+                HttpHeaders headers = new DefaultHttpHeaders().set(SEQUENCE_HEADER, sequence);
+                if (handshaker != null) {
+                    handshaker.handshake(ch, request, headers, ch.newPromise()).addListener(NotificationHandler::logFailedListener);
+                } else {
+                    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, headers);
+                    headers.set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED)
+                            .set(HttpHeaderNames.CONTENT_TYPE, transport == Transport.SSE ? EVENT_STREAM : format.getContentType());
+                    if (transport == Transport.SSE) {
+                        headers.set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+                    }
+                    if (gzip) {
+                        // frames are compressed once per event, in place of the removed content compressor
+                        headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+                    }
+                    sendHttpResponse(ctx, request, response);
+                }
+                writeAll(ch, subscription, messages);
+                if (snapshot) {
+                    new SnapshotStream(this, esClient, MAPPER, ch, subscription, sequence, snapshotPageSize).start();
+                }
+            } finally {
+                request.release();
+            }
+        });
+    }
+
+    /**
+     * Returns the messages of the events after the sequence, must be called on the fan-out thread holding the replay buffer lock.
+     */
+    private List<Object> replay(Channel ch, Subscription subscription, long sequence) {
+        List<Object> messages = new ArrayList<>();
+        for (ReplayBuffer.Entry e : replayBuffer.since(sequence)) {
+            if (subscription.matches(e.metadata) && subscription.acquire(e.sequence)) {
+                Object message = replayMessage(ch.alloc(), e, subscription);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Writes the messages to a subscriber on its event loop, then flushes them.
+     */
+    private static void writeAll(Channel ch, Subscription subscription, List<Object> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        for (Object message : messages) {
+            write(ch, subscription, message, false);
+        }
+        ch.flush();
+    }
+
+    /**
+     * Returns ids of objects published after the sequence.
+     */
+    Set<String> publishedSince(long sequence) {
+        synchronized (replayBuffer) {
+            List<ReplayBuffer.Entry> entries = replayBuffer.since(sequence);
+            if (entries.isEmpty()) {
+                return Collections.emptySet();
+            }
+            Set<String> ids = new HashSet<>(entries.size());
+            for (ReplayBuffer.Entry e : entries) {
+                ids.add(e.id);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Switches a subscriber from its snapshot to live events, events published since the snapshot started are replayed first.
+     * The subscriber is switched on the fan-out thread, and the events are written on the channel's event loop.
+     */
+    void goLive(Channel ch, long sequence) {
+        Subscription subscription = ch.attr(SUBSCRIPTION_KEY).get();
+        onFanOutThread(ch, () -> {
+            List<Object> messages;
+            synchronized (replayBuffer) {
+                if (!replayBuffer.canReplay(sequence)) {
+                    LOGGER.warn("Events published during snapshot of [{}] are no longer available.", ch.remoteAddress());
+                    closeGone(ch, subscription);
+                    return;
+                }
+                subscription.setReplayed(replayBuffer.lastSequence());
+                messages = replay(ch, subscription, sequence);
+                SUB_CHANNELS.add(ch);
+            }
+            ch.eventLoop().execute(() -> writeAll(ch, subscription, messages));
+        });
+    }
+
+    /**
+     * Returns whether the accept-encoding header allows gzip, explicitly or by a wildcard, with a non-zero quality.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (HttpHeaderValues.GZIP.contentEqualsIgnoreCase(name) || HttpHeaderValues.X_GZIP.contentEqualsIgnoreCase(name)) {
+                return accepted;
+            }
+            if ("*".equals(name)) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard;
+    }
+
+    private static void closeGone(Channel ch, Subscription subscription) {
+        if (subscription.getVariant().getTransport() == Transport.WEBSOCKET) {
+            ch.writeAndFlush(new CloseWebSocketFrame(CLOSE_STATUS_GONE, "Sequence is no longer available")).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            // the response has been sent, closing before the last chunk tells the subscriber to resubscribe
+            ch.close();
+        }
+    }
+
+    /**
+     * Strips a subscriber channel of the handlers only needed for requests, and bounds its buffers.
+     * Frames are written as retained duplicates of the shared buffers, so chunked inputs are not needed.
+     * The content compressor is replaced by the gzip variant of the frames, compressed once per event
+     * and chosen when the subscription is negotiated.
+     */
+    private void slim(Channel ch, Transport transport) {
+        ChannelPipeline p = ch.pipeline();
+        removeIfPresent(p, ChunkedWriteHandler.class);
+        removeIfPresent(p, HttpContentCompressor.class);
+        removeIfPresent(p, HttpContentDecompressor.class);
+        // the upgrade handler is an aggregator too, and must go first
+        removeIfPresent(p, HttpServerUpgradeHandler.class);
+        removeIfPresent(p, HttpObjectAggregator.class);
+        if (transport != Transport.WEBSOCKET) {
+            removeIfPresent(p, WebSocketServerCompressionHandler.class);
+        }
+        if (subscriberReceiveBuffer != null) {
+            ch.config().setOption(ChannelOption.SO_RCVBUF, subscriberReceiveBuffer);
+        }
+        // a subscriber whose pending frames exceed the budget becomes unwritable and is evicted by the fan-out
+        ch.config().setWriteBufferWaterMark(new WriteBufferWaterMark(subscriberBufferBudget / 2, subscriberBufferBudget));
+    }
+
+    private static void removeIfPresent(ChannelPipeline p, Class<? extends ChannelHandler> handlerType) {
+        if (p.get(handlerType) != null) {
+            p.remove(handlerType);
+        }
+    }
+
+    private static Object replayMessage(ByteBufAllocator alloc, ReplayBuffer.Entry entry, Subscription subscription) {
+        EventFrames frames = new EventFrames(alloc, MAPPER, entry.sequence, entry.frame.retainedDuplicate());
+        try {
+            return subscription.getVariant().getTransport().wrap(frames.get(subscription.getVariant()).retainedDuplicate());
+        } catch (IOException e) {
+            LOGGER.error("Failed to encode frame for subscription [{}].", subscription, e);
+            return null;
+        } finally {
+            frames.release();
+        }
+    }
+
+    /**
+     * Grants credits to a websocket subscriber, and replays the events missed while it was paused.
+     * Credits are granted on the fan-out thread, and the events are written on the channel's event loop.
+     */
+    void grant(Channel ch, long credits) {
+        Subscription subscription = ch.attr(SUBSCRIPTION_KEY).get();
+        if (subscription == null) {
+            return;
         }
-        StandardEvaluationContext context = new StandardEvaluationContext();
+        onFanOutThread(ch, () -> {
+            List<Object> messages = new ArrayList<>();
+            synchronized (replayBuffer) {
+                subscription.grant(credits);
+                if (!subscription.isPaused() || !subscription.hasCredit()) {
+                    return;
+                }
+                if (!replayBuffer.canReplay(subscription.getHandled())) {
+                    LOGGER.warn("Events missed by paused subscriber [{}] are no longer available.", ch.remoteAddress());
+                    closeGone(ch, subscription);
+                    return;
+                }
+                boolean caughtUp = true;
+                for (ReplayBuffer.Entry e : replayBuffer.since(subscription.getHandled())) {
+                    if (!subscription.matches(e.metadata)) {
+                        subscription.replayed(e.sequence, false);
+                        continue;
+                    }
+                    if (!subscription.hasCredit()) {
+                        caughtUp = false;
+                        break;
+                    }
+                    Object message = replayMessage(ch.alloc(), e, subscription);
+                    if (message != null) {
+                        messages.add(message);
+                    }
+                    subscription.replayed(e.sequence, message != null);
+                }
+                if (caughtUp) {
+                    subscription.resume();
+                }
+            }
+            // queued behind frames fanned out before the pause, and ahead of frames fanned out after this task
+            ch.eventLoop().execute(() -> writeAll(ch, subscription, messages));
+        });
+    }
+
+    /**
+     * Lists the subscribers, sorted by lag, the bytes written to them but not yet taken by their sockets,
+     * or by cost, the time spent evaluating their conditions.
+     */
+    private void handleSubscribers(ChannelHandlerContext ctx, FullHttpRequest request, URI uri) throws JsonProcessingException {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        List<NameValuePair> pairs = URLEncodedUtils.parse(uri.getQuery(), UTF8);
+        String sort = getParameter(pairs, "sort", "lag");
+        int limit;
         try {
-            context.setRootObject(Collections.emptyMap());
-            Boolean value = expression.getValue(context, Boolean.class);
-            if (value == null || value == Boolean.TRUE) {
-                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid expression")));
+            limit = Integer.parseInt(getParameter(pairs, "limit", "100"));
+        } catch (NumberFormatException e) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid limit")));
+            return;
+        }
+        String key;
+        if ("lag".equals(sort)) {
+            key = "pendingBytes";
+        } else if ("cost".equals(sort)) {
+            key = "conditionNanos";
+        } else {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Unsupported sort")));
+            return;
+        }
+        List<Map<String, Object>> subscribers = new ArrayList<>(SUB_CHANNELS.size());
+        for (Channel ch : SUB_CHANNELS) {
+            Subscription subscription = ch.attr(SUBSCRIPTION_KEY).get();
+            if (subscription == null) {
+                continue;
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("address", String.valueOf(ch.remoteAddress()));
+            stats.put("condition", subscription.getMatcher().toString());
+            stats.put("variant", subscription.getVariant().toString());
+            stats.putAll(subscription.getMetrics().toMap());
+            // http/2 stream channels have no outbound buffer of their own, but count pending bytes against their water marks too
+            stats.put("pendingBytes", Math.max(0L, ch.config().getWriteBufferHighWaterMark() - ch.bytesBeforeUnwritable()));
+            // shared by the subscribers of the same condition
+            stats.put("conditionEvaluations", subscription.getMatcher().getEvaluations());
+            stats.put("conditionNanos", subscription.getMatcher().getEvaluationNanos());
+            subscribers.add(stats);
+        }
+        subscribers.sort(Comparator.comparingLong((Map<String, Object> m) -> (Long) m.get(key)).reversed());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", subscribers.size());
+        result.put("subscribers", subscribers.subList(0, Math.max(0, Math.min(limit, subscribers.size()))));
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(MAPPER.writeValueAsBytes(result)));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        sendHttpResponse(ctx, request, response);
+    }
+
+    /**
+     * Returns handshake counts and the session resumption ratio of tls connections.
+     */
+    private void handleTls(ChannelHandlerContext ctx, FullHttpRequest request) throws JsonProcessingException {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        if (tls == null) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Tls is disabled")));
+            return;
+        }
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(MAPPER.writeValueAsBytes(tls.stats())));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        sendHttpResponse(ctx, request, response);
+    }
+
+    /**
+     * Returns the latest events slower than the threshold, with their stage breakdown.
+     */
+    private void handleSlowEvents(ChannelHandlerContext ctx, FullHttpRequest request) throws JsonProcessingException {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", slowEvents.getCount());
+        result.put("events", slowEvents.list());
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(MAPPER.writeValueAsBytes(result)));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        sendHttpResponse(ctx, request, response);
+    }
+
+    /**
+     * Lists the reconcile jobs on get, starts or resumes reconciling a bucket on post, and cancels it on delete.
+     * The reconciler answers on its control thread, the response is sent back on the event loop.
+     */
+    private void handleReconcile(ChannelHandlerContext ctx, FullHttpRequest request, URI uri) {
+        if (reconciler == null) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Reconciliation is disabled")));
+            return;
+        }
+        CompletableFuture<?> result;
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        if (request.method() == HttpMethod.GET) {
+            result = reconciler.stats().thenApply(stats -> Collections.singletonMap("jobs", stats));
+        } else if (request.method() == HttpMethod.POST || request.method() == HttpMethod.DELETE) {
+            List<NameValuePair> pairs = URLEncodedUtils.parse(uri.getQuery(), UTF8);
+            String bucket = getParameter(pairs, "bucket", null);
+            if (bucket == null) {
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Missing bucket")));
                 return;
             }
-        } catch (UnsupportedOperationException e) {
-            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid expression")));
+            if (request.method() == HttpMethod.DELETE) {
+                result = reconciler.cancel(bucket).thenApply(cancelled -> cancelled ? Collections.singletonMap("cancelled", bucket) : null);
+            } else {
+                try {
+                    result = reconciler.reconcile(bucket, Boolean.parseBoolean(getParameter(pairs, "restart", "false")));
+                } catch (IllegalArgumentException e) {
+                    sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid bucket")));
+                    return;
+                }
+                status = HttpResponseStatus.ACCEPTED;
+            }
+        } else {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
             return;
-        } catch (SpelEvaluationException ignore) {
         }
-        ch.attr(EXPRESSION_KEY).set(expression);
-        ch.attr(CONTEXT_KEY).set(context);
-        SUB_CHANNELS.add(ch);
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED)
-                .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        HttpResponseStatus success = status;
+        result.whenCompleteAsync((r, e) -> {
+            if (e != null) {
+                LOGGER.error("Failed to handle reconcile request [{}].", uri, e);
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR));
+            } else if (r == null && request.method() == HttpMethod.DELETE) {
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, writeContent(ctx, "Bucket is not being reconciled")));
+            } else if (r == null) {
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONFLICT, writeContent(ctx, "Bucket is being reconciled")));
+            } else {
+                DefaultFullHttpResponse response;
+                try {
+                    response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, success, Unpooled.wrappedBuffer(MAPPER.writeValueAsBytes(r)));
+                } catch (JsonProcessingException ex) {
+                    LOGGER.error("Failed to write reconcile response [{}].", r, ex);
+                    sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR));
+                    return;
+                }
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+                sendHttpResponse(ctx, request, response);
+            }
+        }, ctx.executor());
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format.
+     */
+    private void handleMetrics(ChannelHandlerContext ctx, FullHttpRequest request) {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                writeContent(ctx, Metrics.scrape()));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, Metrics.CONTENT_TYPE);
         sendHttpResponse(ctx, request, response);
     }
 
+    /**
+     * Returns throughput and lag of the peer links.
+     */
+    private void handlePeers(ChannelHandlerContext ctx, FullHttpRequest request) throws JsonProcessingException {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        if (cluster == null) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Cluster is disabled")));
+            return;
+        }
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(MAPPER.writeValueAsBytes(cluster.stats())));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+        sendHttpResponse(ctx, request, response);
+    }
+
+    /**
+     * Streams a range of the event log starting at the offset, the frames are transferred from files directly,
+     * or read into buffers in chunks if the channel is a http/2 stream or encrypted.
+     * The files are opened on the log's reader thread, an offset no longer retained is answered with 416 and the first offset.
+     */
+    private void handleLog(ChannelHandlerContext ctx, FullHttpRequest request, URI uri) {
+        if (request.method() != HttpMethod.GET) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED));
+            return;
+        }
+        if (eventLog == null) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Event log is disabled")));
+            return;
+        }
+        List<NameValuePair> pairs = URLEncodedUtils.parse(uri.getQuery(), UTF8);
+        long offset;
+        int maxBytes;
+        try {
+            offset = Long.parseLong(getParameter(pairs, "offset", "0"));
+            maxBytes = Integer.parseInt(getParameter(pairs, "maxBytes", Integer.toString(Integer.MAX_VALUE)));
+        } catch (NumberFormatException e) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid offset or maxBytes")));
+            return;
+        }
+        if (maxBytes < 0) {
+            sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST, writeContent(ctx, "Invalid maxBytes")));
+            return;
+        }
+        eventLog.readAsync(offset, maxBytes).whenCompleteAsync((slice, e) -> {
+            if (e == null) {
+                try {
+                    writeSlice(ctx, request, slice);
+                } catch (IOException ex) {
+                    LOGGER.error("Failed to write event log from offset [{}].", offset, ex);
+                    sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR));
+                }
+            } else if (e.getCause() instanceof EventLog.OffsetOutOfRangeException) {
+                // the frames were deleted by retention, the consumer resumes from the first offset knowing they are lost
+                DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+                        writeContent(ctx, "Offset is no longer retained"));
+                response.headers().set(FIRST_OFFSET_HEADER, ((EventLog.OffsetOutOfRangeException) e.getCause()).getFirstOffset());
+                sendHttpResponse(ctx, request, response);
+            } else {
+                LOGGER.error("Failed to read event log from offset [{}].", offset, e);
+                sendHttpResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR));
+            }
+        }, ctx.executor());
+    }
+
+    private void writeSlice(ChannelHandlerContext ctx, FullHttpRequest request, EventLog.Slice slice) throws IOException {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        // file regions bypass the content compressor, so the response must not be encoded
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, slice.getLength())
+                .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                .set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.IDENTITY)
+                .set(NEXT_OFFSET_HEADER, slice.getNextOffset());
+        ctx.write(response);
+        ChannelFuture f;
+        if (ctx.channel() instanceof Http2StreamChannel || ctx.pipeline().get(SslHandler.class) != null) {
+            if (ctx.pipeline().get(ChunkedWriteHandler.class) == null) {
+                ctx.pipeline().addBefore(ctx.name(), null, new ChunkedWriteHandler());
+            }
+            f = ctx.writeAndFlush(new HttpChunkedInput(slice.toChunkedInput(LOG_CHUNK_SIZE)));
+        } else {
+            for (FileRegion region : slice.getRegions()) {
+                ctx.write(region);
+            }
+            f = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        if (!HttpUtil.isKeepAlive(request)) {
+            f.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static String getParameter(List<NameValuePair> pairs, String name, String defaultValue) {
+        return pairs.stream().filter(p -> name.equals(p.getName())).map(NameValuePair::getValue).filter(StringUtils::isNotBlank).findAny().orElse(defaultValue);
+    }
+
     private static void sendHttpResponse(ChannelHandlerContext ctx, FullHttpRequest request, HttpResponse response) {
         if (response instanceof FullHttpResponse) {
             response.headers().add(HttpHeaderNames.CONTENT_LENGTH, ((FullHttpResponse) response).content().readableBytes());
@@ -0,0 +1,158 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * A projection of the serialized object, made of dot separated field paths.
+ * Projections are cached by their normalized fields, so that subscribers selecting the same fields
+ * share one instance and one encoded frame per event, and removed once the last subscriber has released them.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/16.
+ */
+final class Projection {
+    private static final int MAX_FIELDS = 64;
+    private static final int MAX_CACHED = 256;
+    private static final ConcurrentMap<String, Projection> CACHE = new ConcurrentHashMap<>();
+    private final String fields;
+    private final Map<String, Projection> children;
+    // guarded by the cache entry
+    private int references;
+
+    private Projection(String fields, Map<String, Projection> children) {
+        this.fields = fields;
+        this.children = children;
+    }
+
+    /**
+     * Returns the projection of comma separated field paths, to be released by the caller.
+     *
+     * @throws IllegalArgumentException if the fields are invalid
+     */
+    static Projection of(String fields) {
+        String[] paths = fields.split(",");
+        if (paths.length > MAX_FIELDS) {
+            throw new IllegalArgumentException("too many fields");
+        }
+        // the sequence and the stamp are always written ahead of the projected fields
+        String normalized = Arrays.stream(paths).map(String::trim).filter(p -> !selects(p, "sequence") && !selects(p, "stamp"))
+                .sorted().distinct().collect(Collectors.joining(","));
+        Projection projection = CACHE.computeIfPresent(normalized, (f, p) -> p.retain());
+        if (projection != null) {
+            return projection;
+        }
+        Map<String, Object> tree = new LinkedHashMap<>();
+        if (!normalized.isEmpty()) {
+            for (String path : normalized.split(",")) {
+                add(tree, path);
+            }
+        }
+        Projection created = new Projection(normalized, build(tree));
+        if (CACHE.size() < MAX_CACHED) {
+            return CACHE.compute(normalized, (f, p) -> (p == null ? created : p).retain());
+        }
+        return created;
+    }
+
+    private Projection retain() {
+        references++;
+        return this;
+    }
+
+    /**
+     * Releases the projection, which is removed from the cache when no subscriber holds it any more.
+     */
+    void release() {
+        CACHE.computeIfPresent(fields, (f, p) -> p != this || --p.references > 0 ? p : null);
+    }
+
+    private static boolean selects(String path, String field) {
+        return path.equals(field) || path.startsWith(field + ".");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(Map<String, Object> tree, String path) {
+        String[] names = path.split("\\.", -1);
+        Map<String, Object> node = tree;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isEmpty()) {
+                throw new IllegalArgumentException("invalid field: " + path);
+            }
+            Object child = node.get(names[i]);
+            if (i == names.length - 1) {
+                // a field selects its whole subtree
+                node.put(names[i], Collections.emptyMap());
+            } else if (child == null) {
+                child = new LinkedHashMap<String, Object>();
+                node.put(names[i], child);
+            } else if (((Map<String, Object>) child).isEmpty()) {
+                return;
+            }
+            node = (Map<String, Object>) child;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Projection> build(Map<String, Object> tree) {
+        if (tree.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Projection> children = new LinkedHashMap<>(tree.size());
+        for (Map.Entry<String, Object> e : tree.entrySet()) {
+            children.put(e.getKey(), new Projection(e.getKey(), build((Map<String, Object>) e.getValue())));
+        }
+        return children;
+    }
+
+    /**
+     * Writes the selected fields of an object node to a generator positioned inside an object.
+     */
+    void write(JsonGenerator generator, JsonNode node) throws IOException {
+        for (Map.Entry<String, Projection> e : children.entrySet()) {
+            JsonNode child = node.get(e.getKey());
+            if (child == null) {
+                continue;
+            }
+            generator.writeFieldName(e.getKey());
+            Projection projection = e.getValue();
+            if (projection.children.isEmpty() || !child.isObject()) {
+                generator.writeTree(child);
+            } else {
+                generator.writeStartObject();
+                projection.write(generator, child);
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return fields.equals(((Projection) o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return fields;
+    }
+}
@@ -0,0 +1,120 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory bounded ring of recently published frames, so that a reconnecting subscriber
+ * can resume from the last sequence it received.
+ * Callers synchronize on the buffer itself to keep sequence assignment and appending in order.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/2.
+ */
+class ReplayBuffer {
+    private final long capacity;
+    private final ArrayDeque<Entry> entries;
+    private long sequence;
+    private long size;
+
+    ReplayBuffer(long capacity) {
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<>();
+        // seeded with the start time, so sequences of a restarted server keep increasing
+        this.sequence = System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Makes sure the next sequence is greater than the given one.
+     */
+    void seed(long sequence) {
+        this.sequence = Math.max(this.sequence, sequence);
+    }
+
+    long nextSequence() {
+        return ++sequence;
+    }
+
+    long lastSequence() {
+        return sequence;
+    }
+
+    /**
+     * Appends a frame, takes over the ownership of it and evicts the oldest frames exceeding the capacity.
+     */
+    void append(long sequence, String id, Map<String, String> metadata, ByteBuf frame) {
+        if (capacity <= 0) {
+            frame.release();
+            return;
+        }
+        entries.addLast(new Entry(sequence, id, metadata, frame));
+        size += frame.readableBytes();
+        while (size > capacity && !entries.isEmpty()) {
+            Entry e = entries.pollFirst();
+            size -= e.frame.readableBytes();
+            e.frame.release();
+        }
+    }
+
+    /**
+     * Returns whether all frames after the sequence are still available.
+     */
+    boolean canReplay(long sequence) {
+        if (sequence > this.sequence) {
+            return false;
+        }
+        if (sequence == this.sequence) {
+            return true;
+        }
+        Entry first = entries.peekFirst();
+        return first != null && first.sequence <= sequence + 1;
+    }
+
+    /**
+     * Returns entries after the sequence, the frames are not retained.
+     */
+    List<Entry> since(long sequence) {
+        if (entries.isEmpty() || entries.peekLast().sequence <= sequence) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<>();
+        Iterator<Entry> it = entries.descendingIterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.sequence <= sequence) {
+                break;
+            }
+            result.add(e);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    void clear() {
+        for (Entry e : entries) {
+            e.frame.release();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    static final class Entry {
+        final long sequence;
+        final String id;
+        final Map<String, String> metadata;
+        final ByteBuf frame;
+
+        Entry(long sequence, String id, Map<String, String> metadata, ByteBuf frame) {
+            this.sequence = sequence;
+            this.id = id;
+            this.metadata = metadata;
+            this.frame = frame;
+        }
+    }
+}
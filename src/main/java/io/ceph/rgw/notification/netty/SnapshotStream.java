@@ -0,0 +1,150 @@
+package io.ceph.rgw.notification.netty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ceph.rgw.client.model.notification.ObjectMetadataInfo;
+import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.CharsetUtil;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams the current state of matching objects from ElasticSearch to a new subscriber, page by page,
+ * then hands the subscriber over to the live stream.
+ * The next page is searched only once the previous one is written and the channel is writable,
+ * so a slow subscriber holds at most one page in memory.
+ * Only documents matching the routes of the condition are searched, and the condition is evaluated on each of them.
+ * Every snapshot frame carries the sequence the snapshot started at, live events after it are replayed
+ * from the replay buffer, and objects changed by those events are skipped from the snapshot.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/24.
+ */
+class SnapshotStream extends ChannelInboundHandlerAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotStream.class);
+    private final NotificationHandler handler;
+    private final ESClient esClient;
+    private final ObjectMapper mapper;
+    private final Channel channel;
+    private final Subscription subscription;
+    private final long sequence;
+    private final int pageSize;
+    private Object[] searchAfter;
+    private boolean waiting;
+    private boolean done;
+    private long count;
+
+    SnapshotStream(NotificationHandler handler, ESClient esClient, ObjectMapper mapper, Channel channel, Subscription subscription, long sequence, int pageSize) {
+        this.handler = handler;
+        this.esClient = esClient;
+        this.mapper = mapper;
+        this.channel = channel;
+        this.subscription = subscription;
+        this.sequence = sequence;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Adds the stream to the channel's pipeline and searches the first page, must be called on the channel's event loop.
+     */
+    void start() {
+        channel.pipeline().addLast(this);
+        search();
+    }
+
+    private void search() {
+        esClient.scan(subscription.getMatcher().getRoutes(), searchAfter, pageSize, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                channel.eventLoop().execute(() -> write(response.getHits().getHits()));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                LOGGER.error("Failed to search snapshot page for [{}].", channel.remoteAddress(), e);
+                channel.eventLoop().execute(() -> {
+                    done = true;
+                    channel.close();
+                });
+            }
+        });
+    }
+
+    private void write(SearchHit[] hits) {
+        if (done || !channel.isActive()) {
+            return;
+        }
+        Set<String> changed = handler.publishedSince(sequence);
+        for (SearchHit hit : hits) {
+            if (changed.contains(hit.getId())) {
+                continue;
+            }
+            BytesReference source = hit.getSourceRef();
+            if (source == null) {
+                continue;
+            }
+            byte[] bytes = BytesReference.toBytes(source);
+            Map<String, String> metadata;
+            try {
+                metadata = mapper.readValue(bytes, ObjectMetadataInfo.class).getMetadata().all();
+            } catch (IOException e) {
+                LOGGER.error("Failed to deserialize snapshot document [{}].", new String(bytes, CharsetUtil.UTF_8), e);
+                continue;
+            }
+            if (!subscription.matches(metadata)) {
+                continue;
+            }
+            ByteBuf frame = FrameEncoder.encode(channel.alloc(), sequence, bytes);
+            EventFrames frames = new EventFrames(channel.alloc(), mapper, sequence, frame);
+            try {
+                channel.write(subscription.getVariant().getTransport().wrap(frames.get(subscription.getVariant()).retainedDuplicate()));
+                subscription.written();
+                count++;
+            } catch (IOException e) {
+                LOGGER.error("Failed to encode frame for subscription [{}].", subscription, e);
+            } finally {
+                frames.release();
+            }
+        }
+        channel.flush();
+        if (hits.length < pageSize) {
+            done = true;
+            LOGGER.debug("Streamed snapshot of [{}] objects to [{}].", count, channel.remoteAddress());
+            channel.pipeline().remove(this);
+            handler.goLive(channel, sequence);
+            return;
+        }
+        searchAfter = hits[hits.length - 1].getSortValues();
+        if (channel.isWritable()) {
+            search();
+        } else {
+            waiting = true;
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (waiting && !done && ctx.channel().isWritable()) {
+            waiting = false;
+            search();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        done = true;
+        ctx.fireChannelInactive();
+    }
+}
@@ -0,0 +1,39 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.List;
+
+/**
+ * Turns requests on the subscribe port into full requests without aggregating them,
+ * subscribe requests carry no content, so any content is dropped.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/5.
+ */
+@ChannelHandler.Sharable
+final class SubscribeRequestDecoder extends MessageToMessageDecoder<HttpObject> {
+    static final SubscribeRequestDecoder INSTANCE = new SubscribeRequestDecoder();
+
+    private SubscribeRequestDecoder() {
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            FullHttpRequest full = new DefaultFullHttpRequest(request.protocolVersion(), request.method(), request.uri(),
+                    Unpooled.EMPTY_BUFFER, request.headers(), EmptyHttpHeaders.INSTANCE);
+            full.setDecoderResult(request.decoderResult());
+            out.add(full);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.ceph.rgw.notification.netty;
+
+import io.ceph.rgw.notification.metrics.Metrics;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a subscriber, updated by publishers without allocation.
+ * One write at a time is timed from the publisher to the socket, the listener is the metrics itself.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/4.
+ */
+final class SubscriberMetrics implements ChannelFutureListener {
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    // start of the timed write, or 0 if none is pending
+    private final AtomicLong probe = new AtomicLong();
+    private volatile long lastWriteNanos;
+
+    void evaluated(boolean matched) {
+        evaluations.increment();
+        if (matched) {
+            matches.increment();
+        }
+    }
+
+    /**
+     * Returns whether the next write should be timed, then the metrics must listen to its future.
+     */
+    boolean startProbe() {
+        return probe.compareAndSet(0, Math.max(1, System.nanoTime()));
+    }
+
+    void written(int bytes) {
+        frames.increment();
+        this.bytes.add(bytes);
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) {
+        long start = probe.getAndSet(0);
+        if (start != 0 && future.isSuccess()) {
+            lastWriteNanos = System.nanoTime() - start;
+            Metrics.SUBSCRIBER_WRITE.record(lastWriteNanos);
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("evaluations", evaluations.sum());
+        map.put("matches", matches.sum());
+        map.put("frames", frames.sum());
+        map.put("bytes", bytes.sum());
+        map.put("lastWriteLatencyUs", TimeUnit.NANOSECONDS.toMicros(lastWriteNanos));
+        return map;
+    }
+}
@@ -0,0 +1,187 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.util.Timeout;
+
+import java.util.Map;
+
+/**
+ * Condition and delivery options of a subscriber channel.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/11.
+ */
+final class Subscription {
+    private final Matcher matcher;
+    private final FrameVariant variant;
+    private final boolean heartbeats;
+    private final SubscriberMetrics metrics;
+    private volatile long lastSeen;
+    private volatile long lastWrite;
+    private volatile long heartbeatPending;
+    private volatile Timeout heartbeat;
+    // flow control state, confined to the fan-out thread
+    private long credits;
+    private boolean paused;
+    private long handled;
+    private long replayed;
+
+    /**
+     * Creates a subscription, credits are unlimited if negative.
+     * Chunked subscribers receive empty frames as heartbeats only if they accept them.
+     */
+    Subscription(Matcher matcher, FrameVariant variant, long credits, boolean heartbeats) {
+        this.matcher = matcher;
+        this.variant = variant;
+        this.credits = credits;
+        this.heartbeats = heartbeats;
+        this.metrics = new SubscriberMetrics();
+        this.lastSeen = System.currentTimeMillis();
+        this.lastWrite = lastSeen;
+    }
+
+    boolean matches(Map<String, String> metadata) {
+        return matcher.matches(metadata);
+    }
+
+    /**
+     * Releases the cached condition and projection, called once the subscriber channel is closed.
+     */
+    void release() {
+        matcher.release();
+        if (variant.getProjection() != null) {
+            variant.getProjection().release();
+        }
+    }
+
+    Matcher getMatcher() {
+        return matcher;
+    }
+
+    FrameVariant getVariant() {
+        return variant;
+    }
+
+    SubscriberMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Acquires a credit to deliver the event, once credits are exhausted the subscription is paused
+     * until {@link #grant(long)}, and events after the last handled one must be replayed.
+     */
+    boolean acquire(long sequence) {
+        if (credits < 0) {
+            return true;
+        }
+        if (paused) {
+            return false;
+        }
+        if (credits == 0) {
+            paused = true;
+            handled = sequence - 1;
+            return false;
+        }
+        credits--;
+        return true;
+    }
+
+    void grant(long credits) {
+        if (this.credits >= 0) {
+            this.credits += credits;
+        }
+    }
+
+    boolean hasCredit() {
+        return credits != 0;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Returns the sequence of the last event delivered or not matched before the subscription paused.
+     */
+    long getHandled() {
+        return handled;
+    }
+
+    /**
+     * Records a replayed event while paused.
+     */
+    void replayed(long sequence, boolean delivered) {
+        handled = sequence;
+        replayed = sequence;
+        if (delivered && credits > 0) {
+            credits--;
+        }
+    }
+
+    /**
+     * Returns the sequence of the last event replayed to the client, the fan-out skips events up to it.
+     */
+    long getReplayed() {
+        return replayed;
+    }
+
+    void setReplayed(long replayed) {
+        this.replayed = replayed;
+    }
+
+    void resume() {
+        paused = false;
+    }
+
+    /**
+     * Records that the client is alive.
+     */
+    void seen() {
+        lastSeen = System.currentTimeMillis();
+    }
+
+    long getLastSeen() {
+        return lastSeen;
+    }
+
+    boolean acceptsHeartbeats() {
+        return heartbeats || variant.getTransport() != Transport.CHUNKED;
+    }
+
+    /**
+     * Records that an event was written to the client.
+     */
+    void written() {
+        lastWrite = System.currentTimeMillis();
+    }
+
+    long getLastWrite() {
+        return lastWrite;
+    }
+
+    /**
+     * Returns when the pending heartbeat was written, or 0 if none is pending.
+     */
+    long getHeartbeatPending() {
+        return heartbeatPending;
+    }
+
+    void setHeartbeatPending(long heartbeatPending) {
+        this.heartbeatPending = heartbeatPending;
+    }
+
+    Timeout getHeartbeat() {
+        return heartbeat;
+    }
+
+    void setHeartbeat(Timeout heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public String toString() {
+        return "Subscription{" +
+                "condition=" + matcher +
+                ", variant=" + variant +
+                '}';
+    }
+}
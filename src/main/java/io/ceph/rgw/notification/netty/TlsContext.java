@@ -0,0 +1,190 @@
+package io.ceph.rgw.notification.netty;
+
+import io.ceph.rgw.notification.metrics.Metrics;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server side tls context, rebuilt off the event loops when the certificate or the key file changes,
+ * and swapped in by a volatile write, new connections use the latest context while established ones keep theirs.
+ * Sessions are cached by the context and resumed from the cache or from session tickets,
+ * handshakes are counted by whether they resumed a session.
+ * The openssl provider issues session tickets by default, the jdk provider of java 13 or later
+ * only with -Djdk.tls.server.enableSessionTicketExtension=true on the command line.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/6.
+ */
+final class TlsContext {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TlsContext.class);
+    private final HttpProperties properties;
+    private final File certFile;
+    private final File keyFile;
+    private final boolean alpn;
+    private final LongAdder handshakes;
+    private final LongAdder resumed;
+    private final LongAdder failures;
+    private final LongAdder handshakeNanos;
+    private volatile SslContext context;
+    private volatile long lastModified;
+
+    TlsContext(HttpProperties properties) throws SSLException {
+        this.properties = properties;
+        this.certFile = new File(Validate.notBlank(properties.getSslCertPath(), "sslCertPath cannot be empty string")).getAbsoluteFile();
+        this.keyFile = new File(Validate.notBlank(properties.getSslKeyPath(), "sslKeyPath cannot be empty string")).getAbsoluteFile();
+        this.alpn = Boolean.TRUE.equals(properties.isHttp2()) && SslProvider.isAlpnSupported(provider());
+        if (Boolean.TRUE.equals(properties.isHttp2()) && !alpn) {
+            LOGGER.warn("ALPN is unsupported by ssl provider [{}], the tls port serves http/1.1 only.", provider());
+        }
+        this.handshakes = new LongAdder();
+        this.resumed = new LongAdder();
+        this.failures = new LongAdder();
+        this.handshakeNanos = new LongAdder();
+        Metrics.counter("notification_tls_handshakes_total", "Successful tls handshakes, resumed or not.", handshakes::sum);
+        Metrics.counter("notification_tls_resumed_handshakes_total", "Tls handshakes resuming a session.", resumed::sum);
+        Metrics.counter("notification_tls_failed_handshakes_total", "Failed tls handshakes.", failures::sum);
+        Metrics.ratio("notification_tls_resumption_ratio", "Ratio of tls handshakes resuming a session.", this::resumptionRatio);
+        this.lastModified = lastModified();
+        this.context = build();
+    }
+
+    private static SslProvider provider() {
+        return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+    }
+
+    private long lastModified() {
+        return Math.max(certFile.lastModified(), keyFile.lastModified());
+    }
+
+    private SslContext build() throws SSLException {
+        SslContextBuilder builder = SslContextBuilder.forServer(certFile, keyFile, properties.getSslKeyPass())
+                .sslProvider(provider())
+                .sessionCacheSize(properties.getSslSessionCacheSize())
+                .sessionTimeout(properties.getSslSessionTimeout());
+        if (properties.getSslCiphers() != null) {
+            builder.ciphers(properties.getSslCiphers(), SupportedCipherSuiteFilter.INSTANCE);
+        } else if (alpn) {
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE);
+        }
+        if (properties.getSslProtocols() != null) {
+            builder.protocols(properties.getSslProtocols().toArray(new String[0]));
+        }
+        if (alpn) {
+            builder.applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                    ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                    ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                    ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Rebuilds the context if the certificate or the key file was modified since it was built,
+     * a broken pair of files is logged and the current context kept.
+     */
+    void reload() {
+        long modified = lastModified();
+        if (modified == lastModified) {
+            return;
+        }
+        try {
+            context = build();
+            lastModified = modified;
+            LOGGER.info("Reloaded tls certificate [{}] and key [{}].", certFile, keyFile);
+        } catch (Exception e) {
+            LOGGER.error("Failed to reload tls certificate [{}] and key [{}], keeping the current one.", certFile, keyFile, e);
+        }
+    }
+
+    /**
+     * Returns whether http/2 is negotiated by ALPN.
+     */
+    boolean isAlpn() {
+        return alpn;
+    }
+
+    SslHandler newHandler(ByteBufAllocator alloc) {
+        return context.newHandler(alloc);
+    }
+
+    /**
+     * Returns a handler that counts the handshake of a channel, to be added after its ssl handler.
+     */
+    ChannelInboundHandlerAdapter newHandshakeCounter() {
+        return new HandshakeCounter();
+    }
+
+    Map<String, Object> stats() {
+        long handshakes = this.handshakes.sum();
+        long resumed = this.resumed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("handshakes", handshakes);
+        stats.put("resumedHandshakes", resumed);
+        stats.put("failedHandshakes", failures.sum());
+        stats.put("resumptionRatio", handshakes == 0 ? 0D : (double) resumed / handshakes);
+        stats.put("meanHandshakeUs", handshakes == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(handshakeNanos.sum() / handshakes));
+        stats.put("alpn", alpn);
+        return stats;
+    }
+
+    private double resumptionRatio() {
+        long handshakes = this.handshakes.sum();
+        return handshakes == 0 ? 0D : (double) resumed.sum() / handshakes;
+    }
+
+    /**
+     * A session created before the handshake started was resumed rather than negotiated.
+     */
+    private class HandshakeCounter extends ChannelInboundHandlerAdapter {
+        private long startMillis;
+        private long startNanos;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            startMillis = System.currentTimeMillis();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof SslHandshakeCompletionEvent) {
+                if (((SslHandshakeCompletionEvent) evt).isSuccess()) {
+                    long nanos = System.nanoTime() - startNanos;
+                    handshakes.increment();
+                    handshakeNanos.add(nanos);
+                    Metrics.TLS_HANDSHAKE.record(nanos);
+                    SSLSession session = ctx.pipeline().get(SslHandler.class).engine().getSession();
+                    if (session.getCreationTime() < startMillis) {
+                        resumed.increment();
+                    }
+                } else {
+                    failures.increment();
+                }
+                ctx.pipeline().remove(this);
+            }
+            ctx.fireUserEventTriggered(evt);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.ceph.rgw.notification.netty;
+
+/**
+ * Kinds of traffic a server port carries, publish and subscribe traffic may be served on separate ports,
+ * so that neither delays the other.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/5.
+ */
+enum Traffic {
+    /**
+     * Every request is served on one port.
+     */
+    ALL {
+        @Override
+        boolean accepts(String path) {
+            return true;
+        }
+    },
+    /**
+     * Publish requests from Rados gateway and admin requests.
+     */
+    PUBLISH {
+        @Override
+        boolean accepts(String path) {
+            return !SUBSCRIBE.accepts(path) || "/".equals(path);
+        }
+    },
+    /**
+     * Long-lived subscribe streams and reads of the event log.
+     */
+    SUBSCRIBE {
+        @Override
+        boolean accepts(String path) {
+            return path.startsWith("/subscribe") || "/log".equals(path) || "/".equals(path);
+        }
+    };
+
+    abstract boolean accepts(String path);
+}
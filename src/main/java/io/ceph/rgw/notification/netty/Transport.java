@@ -0,0 +1,46 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * Transports of the subscribe stream.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/22.
+ */
+enum Transport {
+    /**
+     * Frames are written as chunks of a chunked http response.
+     */
+    CHUNKED {
+        @Override
+        Object wrap(ByteBuf frame) {
+            return new DefaultHttpContent(frame);
+        }
+    },
+    /**
+     * Messages are written as server-sent events, with the sequence as the event id.
+     */
+    SSE {
+        @Override
+        Object wrap(ByteBuf frame) {
+            return new DefaultHttpContent(frame);
+        }
+    },
+    /**
+     * Messages are written as binary websocket frames.
+     */
+    WEBSOCKET {
+        @Override
+        Object wrap(ByteBuf frame) {
+            return new BinaryWebSocketFrame(frame);
+        }
+    };
+
+    /**
+     * Wraps a frame into the message written to the channel, the message takes over the ownership of the frame.
+     */
+    abstract Object wrap(ByteBuf frame);
+}
@@ -0,0 +1,58 @@
+package io.ceph.rgw.notification.netty;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+
+/**
+ * Handles frames sent by websocket subscribers.
+ * A text frame of a decimal number grants that many credits to the subscription,
+ * any frame proves the subscriber is alive.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/6/22.
+ */
+@ChannelHandler.Sharable
+class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketFrameHandler.class);
+    private final NotificationHandler handler;
+
+    WebSocketFrameHandler(NotificationHandler handler) {
+        this.handler = Objects.requireNonNull(handler);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+        Subscription subscription = ctx.channel().attr(NotificationHandler.SUBSCRIPTION_KEY).get();
+        if (subscription != null) {
+            subscription.seen();
+        }
+        if (frame instanceof CloseWebSocketFrame) {
+            ctx.writeAndFlush(frame.retainedDuplicate()).addListener(ChannelFutureListener.CLOSE);
+        } else if (frame instanceof PingWebSocketFrame) {
+            ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+        } else if (frame instanceof TextWebSocketFrame) {
+            String text = ((TextWebSocketFrame) frame).text().trim();
+            long credits;
+            try {
+                credits = Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                LOGGER.debug("Ignore text frame [{}] from [{}].", text, ctx.channel().remoteAddress());
+                return;
+            }
+            if (credits > 0) {
+                handler.grant(ctx.channel(), credits);
+            }
+        }
+    }
+}
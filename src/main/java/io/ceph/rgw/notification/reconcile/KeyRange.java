@@ -0,0 +1,142 @@
+package io.ceph.rgw.notification.reconcile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A range of keys of a bucket, after the lower bound and up to the upper bound, either of which is open if null.
+ * The marker is the last key reconciled, the range is resumed after it.
+ * Fields are only changed by the job holding the range while it is locked, and read under the same lock.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+final class KeyRange {
+    private final String lower;
+    private final String upper;
+    private String marker;
+    private boolean done;
+    private long listed;
+    private long missing;
+    private long changed;
+    private long stale;
+    private long unchanged;
+    // listed but deleted before looked up
+    private long vanished;
+
+    KeyRange(String lower, String upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    String getLower() {
+        return lower;
+    }
+
+    String getUpper() {
+        return upper;
+    }
+
+    /**
+     * Returns the key to list after, which is the lower bound until a page is reconciled.
+     */
+    String getAfter() {
+        return marker == null ? lower : marker;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns whether a key is beyond the upper bound.
+     */
+    boolean isBeyond(String key) {
+        return upper != null && compare(key, upper) > 0;
+    }
+
+    /**
+     * Records a reconciled page, up to the marker, or up to the upper bound if it is the last page.
+     */
+    void reconciled(String marker, boolean last, long listed, long missing, long changed, long stale, long unchanged, long vanished) {
+        this.marker = marker;
+        this.done = last;
+        this.listed += listed;
+        this.missing += missing;
+        this.changed += changed;
+        this.stale += stale;
+        this.unchanged += unchanged;
+        this.vanished += vanished;
+    }
+
+    /**
+     * Adds the counts of the range to totals of the same keys.
+     */
+    void sum(Map<String, Long> totals) {
+        totals.merge("listed", listed, Long::sum);
+        totals.merge("missing", missing, Long::sum);
+        totals.merge("changed", changed, Long::sum);
+        totals.merge("stale", stale, Long::sum);
+        totals.merge("unchanged", unchanged, Long::sum);
+        totals.merge("vanished", vanished, Long::sum);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("lower", lower);
+        map.put("upper", upper);
+        map.put("marker", marker);
+        map.put("done", done);
+        map.put("listed", listed);
+        map.put("missing", missing);
+        map.put("changed", changed);
+        map.put("stale", stale);
+        map.put("unchanged", unchanged);
+        map.put("vanished", vanished);
+        return map;
+    }
+
+    static KeyRange of(JsonNode node) {
+        KeyRange range = new KeyRange(text(node, "lower"), text(node, "upper"));
+        range.marker = text(node, "marker");
+        range.done = node.path("done").asBoolean();
+        range.listed = node.path("listed").asLong();
+        range.missing = node.path("missing").asLong();
+        range.changed = node.path("changed").asLong();
+        range.stale = node.path("stale").asLong();
+        range.unchanged = node.path("unchanged").asLong();
+        range.vanished = node.path("vanished").asLong();
+        return range;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Compares keys by code points, which is the order of their UTF-8 bytes,
+     * the order Rados gateway lists keys in and ElasticSearch sorts keywords in.
+     */
+    static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + (lower == null ? "" : lower) + ", " + (upper == null ? "" : upper) + "]";
+    }
+}
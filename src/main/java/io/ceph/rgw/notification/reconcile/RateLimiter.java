@@ -0,0 +1,38 @@
+package io.ceph.rgw.notification.reconcile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces permits evenly at a fixed rate, a caller blocks until its permit is due.
+ * Unused permits are not saved up, so that a resumed job does not start with a burst.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+final class RateLimiter {
+    private final long intervalNanos;
+    private long next;
+
+    RateLimiter(int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("invalid rate: " + permitsPerSecond);
+        }
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.next = System.nanoTime();
+    }
+
+    void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (next - now < 0) {
+                next = now;
+            }
+            wait = next - now;
+            next += intervalNanos;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package io.ceph.rgw.notification.reconcile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ceph.rgw.client.ObjectClient;
+import io.ceph.rgw.client.action.ActionListener;
+import io.ceph.rgw.client.model.GetObjectInfoResponse;
+import io.ceph.rgw.client.model.ListObjectsResponse;
+import io.ceph.rgw.client.model.ObjectSummary;
+import io.ceph.rgw.client.model.notification.ObjectInfo;
+import io.ceph.rgw.client.model.notification.ObjectMetadataInfo;
+import io.ceph.rgw.notification.elasticsearch.ESClient;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Reconciles the documents of a bucket with its objects, range by range in parallel.
+ * A range is reconciled a page at a time: the keys listed from Rados gateway are joined with the documents
+ * of the same keys searched from ElasticSearch, the metadata of every key is looked up within the rate limit,
+ * and only missing, changed and stale documents are written in one bulk request: missing documents are created,
+ * the metadata of changed documents is updated, and stale documents are deleted, each only if no event indexed it since.
+ * <p>
+ * The job is checkpointed after every page, so that it resumes after the last page reconciled.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+final class ReconcileJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconcileJob.class);
+    private final String bucket;
+    private final Path checkpoint;
+    private final List<KeyRange> ranges;
+    private final long startTime;
+    private final ObjectClient objectClient;
+    private final ESClient esClient;
+    private final ObjectMapper mapper;
+    private final RateLimiter limiter;
+    private final int pageSize;
+    private final int retries;
+    private final AtomicInteger remaining;
+    private final List<Future<?>> futures;
+    private volatile State state;
+    private volatile String error;
+    private volatile boolean stopped;
+
+    enum State {
+        RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private ReconcileJob(String bucket, Path checkpoint, List<KeyRange> ranges, long startTime, Reconciler reconciler) {
+        this.bucket = bucket;
+        this.checkpoint = checkpoint;
+        this.ranges = ranges;
+        this.startTime = startTime;
+        this.objectClient = reconciler.getObjectClient();
+        this.esClient = reconciler.getEsClient();
+        this.mapper = reconciler.getMapper();
+        this.limiter = reconciler.getLimiter();
+        this.pageSize = reconciler.getProperties().getPageSize();
+        this.retries = reconciler.getProperties().getRetries();
+        this.remaining = new AtomicInteger();
+        this.futures = new ArrayList<>(ranges.size());
+        this.state = State.RUNNING;
+    }
+
+    /**
+     * Creates a job of the whole bucket, split by the boundaries.
+     */
+    static ReconcileJob create(String bucket, Path checkpoint, List<String> boundaries, Reconciler reconciler) {
+        List<String> sorted = new ArrayList<>(boundaries);
+        sorted.sort(KeyRange::compare);
+        List<KeyRange> ranges = new ArrayList<>(sorted.size() + 1);
+        String lower = null;
+        for (String boundary : sorted) {
+            if (lower == null || KeyRange.compare(lower, boundary) < 0) {
+                ranges.add(new KeyRange(lower, boundary));
+                lower = boundary;
+            }
+        }
+        ranges.add(new KeyRange(lower, null));
+        return new ReconcileJob(bucket, checkpoint, ranges, System.currentTimeMillis(), reconciler);
+    }
+
+    /**
+     * Loads a job from its checkpoint, in the state it was checkpointed in.
+     */
+    static ReconcileJob load(Path checkpoint, Reconciler reconciler) throws IOException {
+        JsonNode node = reconciler.getMapper().readTree(checkpoint.toFile());
+        List<KeyRange> ranges = new ArrayList<>();
+        for (JsonNode range : node.path("ranges")) {
+            ranges.add(KeyRange.of(range));
+        }
+        ReconcileJob job = new ReconcileJob(node.path("bucket").asText(), checkpoint, ranges, node.path("startTime").asLong(), reconciler);
+        job.state = State.valueOf(node.path("state").asText(State.RUNNING.name()));
+        job.error = node.hasNonNull("error") ? node.get("error").asText() : null;
+        return job;
+    }
+
+    String getBucket() {
+        return bucket;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * Submits the ranges not done yet, the job completes once all of them are done.
+     * A job is submitted once, a cancelled or failed job is resumed by a new job loaded from its checkpoint.
+     */
+    synchronized void submit(ExecutorService executor) throws IOException {
+        state = State.RUNNING;
+        error = null;
+        save();
+        List<KeyRange> pending = new ArrayList<>();
+        for (KeyRange range : ranges) {
+            if (!range.isDone()) {
+                pending.add(range);
+            }
+        }
+        if (pending.isEmpty()) {
+            finish();
+            return;
+        }
+        remaining.set(pending.size());
+        for (KeyRange range : pending) {
+            futures.add(executor.submit(() -> run(range)));
+        }
+        LOGGER.info("Reconciling bucket [{}] in [{}] ranges.", bucket, pending.size());
+    }
+
+    /**
+     * Cancels the job, which is resumed from its checkpoint only if started again.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (state != State.RUNNING) {
+                return;
+            }
+            state = State.CANCELLED;
+            saveQuietly();
+        }
+        futures.forEach(f -> f.cancel(true));
+        LOGGER.info("Cancelled reconciling bucket [{}].", bucket);
+    }
+
+    /**
+     * Stops the job on shutdown, which keeps it running in the checkpoint to be resumed on start.
+     */
+    void stop() {
+        stopped = true;
+        futures.forEach(f -> f.cancel(true));
+    }
+
+    private void run(KeyRange range) {
+        try {
+            while (!range.isDone() && state == State.RUNNING && !stopped) {
+                reconcile(range);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!stopped) {
+                LOGGER.error("Failed to reconcile range [{}] of bucket [{}].", range, bucket, e);
+                fail(e);
+            }
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Reconciles a page of a range, from the key after the marker up to the last key listed,
+     * or up to the upper bound if it is the last page.
+     * The documents are searched before the keys are listed, so that a document whose key is not listed was indexed before
+     * the listing, and a page of documents bounds the page, the documents after it are searched with the next page.
+     */
+    private void reconcile(KeyRange range) throws IOException, InterruptedException {
+        String after;
+        synchronized (this) {
+            after = range.getAfter();
+        }
+        SearchResponse searched = await(l -> esClient.scan(bucket, after, range.getUpper(), null, pageSize, l));
+        SearchHit[] hits = searched.getHits().getHits();
+        boolean bounded = hits.length >= pageSize;
+        String bound = bounded ? name(hits[hits.length - 1]) : range.getUpper();
+        ListObjectsResponse listing = objectClient.prepareListObjects()
+                .withBucketName(bucket)
+                .withMarker(after)
+                .withMaxKeys(pageSize)
+                .run();
+        List<String> keys = new ArrayList<>(pageSize);
+        boolean beyond = false;
+        for (ObjectSummary summary : listing.getObjectSummaries()) {
+            if (range.isBeyond(summary.getKey()) || bounded && KeyRange.compare(summary.getKey(), bound) > 0) {
+                beyond = true;
+                break;
+            }
+            keys.add(summary.getKey());
+        }
+        boolean exhausted = beyond || !listing.isTruncated() || keys.isEmpty();
+        boolean last = exhausted && !bounded;
+        String upTo = exhausted ? bound : keys.get(keys.size() - 1);
+
+        List<CompletableFuture<GetObjectInfoResponse>> lookups = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            limiter.acquire();
+            lookups.add(lookup(key));
+        }
+        Map<String, SearchHit> documents = new HashMap<>();
+        for (SearchHit hit : hits) {
+            String name = name(hit);
+            if (upTo == null || KeyRange.compare(name, upTo) <= 0) {
+                documents.put(name, hit);
+            }
+        }
+
+        Map<String, byte[]> creates = new LinkedHashMap<>();
+        Map<SearchHit, Map<String, Object>> metas = new LinkedHashMap<>();
+        long missing = 0;
+        long changed = 0;
+        long unchanged = 0;
+        long vanished = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            CompletableFuture<GetObjectInfoResponse> lookup = lookups.get(i);
+            GetObjectInfoResponse response = null;
+            for (int attempt = 0; response == null; attempt++) {
+                try {
+                    response = lookup.get();
+                } catch (ExecutionException e) {
+                    // an object deleted since listed is not found, its document is left to be deleted as stale
+                    if (!exists(key, i == 0 ? after : keys.get(i - 1))) {
+                        LOGGER.debug("Object[{}]/[{}] deleted since listed.", bucket, key);
+                        break;
+                    }
+                    // the page is not checkpointed past a key failed to look up
+                    if (attempt == retries) {
+                        throw new IOException("failed to get object [" + bucket + "]/[" + key + "] info", e.getCause());
+                    }
+                    LOGGER.warn("Failed to get object[{}]/[{}] info, retrying.", bucket, key, e.getCause());
+                    limiter.acquire();
+                    lookup = lookup(key);
+                }
+            }
+            if (response == null) {
+                vanished++;
+                continue;
+            }
+            byte[] source = mapper.writeValueAsBytes(new ObjectMetadataInfo(objectInfo(key), response.getMetadata()));
+            JsonNode meta = mapper.readTree(source).get("meta");
+            SearchHit document = documents.remove(key);
+            if (document == null) {
+                creates.put(id(key), source);
+                missing++;
+            } else if (!Objects.equals(meta, mapper.readTree(document.getSourceAsString()).get("meta"))) {
+                // only the metadata is updated, the rest of the document is as indexed from the event
+                metas.put(document, meta == null ? null : toMap(meta));
+                changed++;
+            } else {
+                unchanged++;
+            }
+        }
+        // documents left were indexed before listing and their keys not listed, their objects no longer exist
+        List<SearchHit> deletes = new ArrayList<>(documents.values());
+        if (!creates.isEmpty() || !metas.isEmpty() || !deletes.isEmpty()) {
+            BulkResponse response = await(l -> esClient.bulk(creates, metas, deletes, l));
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    continue;
+                }
+                // indexed or deleted by an event since searched, which is newer than what is written here
+                if (item.status() == RestStatus.CONFLICT || item.status() == RestStatus.NOT_FOUND) {
+                    LOGGER.debug("Skipped document [{}] of bucket [{}], [{}].", item.getId(), bucket, item.getFailureMessage());
+                } else {
+                    throw new IOException(response.buildFailureMessage());
+                }
+            }
+        }
+        synchronized (this) {
+            // a cancelled job may have been resumed by another one, which owns the checkpoint
+            if (state != State.RUNNING || stopped) {
+                return;
+            }
+            range.reconciled(last ? range.getAfter() : upTo, last, keys.size(), missing, changed, deletes.size(), unchanged, vanished);
+            save();
+        }
+    }
+
+    /**
+     * Returns whether a key is still listed, by listing after the key before it,
+     * which tells a key not found from a lookup failed otherwise without relying on the error.
+     */
+    private boolean exists(String key, String before) {
+        String marker = before;
+        while (true) {
+            ListObjectsResponse listing = objectClient.prepareListObjects()
+                    .withBucketName(bucket)
+                    .withMarker(marker)
+                    .withMaxKeys(pageSize)
+                    .run();
+            for (ObjectSummary summary : listing.getObjectSummaries()) {
+                int c = KeyRange.compare(summary.getKey(), key);
+                if (c >= 0) {
+                    return c == 0;
+                }
+                marker = summary.getKey();
+            }
+            if (!listing.isTruncated() || listing.getObjectSummaries().isEmpty()) {
+                return false;
+            }
+        }
+    }
+
+    private CompletableFuture<GetObjectInfoResponse> lookup(String key) {
+        CompletableFuture<GetObjectInfoResponse> future = new CompletableFuture<>();
+        objectClient.prepareGetObjectInfo()
+                .withBucketName(bucket)
+                .withKey(key)
+                .execute(new ActionListener<GetObjectInfoResponse>() {
+                    @Override
+                    public void onSuccess(GetObjectInfoResponse response) {
+                        future.complete(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable cause) {
+                        future.completeExceptionally(cause);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Returns the metadata as the values of a script, which are strings.
+     */
+    private static Map<String, Object> toMap(JsonNode meta) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        meta.fields().forEachRemaining(e -> map.put(e.getKey(), e.getValue().asText()));
+        return map;
+    }
+
+    private static String name(SearchHit hit) {
+        return String.valueOf(hit.getSourceAsMap().get("name"));
+    }
+
+    /**
+     * Returns the object info of a key, as notified by Rados gateway, with only the fields known without the event.
+     * Documents are only created with it if absent, a document indexed from the event is never overwritten by it.
+     */
+    private ObjectInfo objectInfo(String key) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("bucket", Collections.singletonMap("name", bucket));
+        Map<String, Object> k = new LinkedHashMap<>();
+        k.put("name", key);
+        k.put("instance", "");
+        info.put("key", k);
+        return mapper.convertValue(info, ObjectInfo.class);
+    }
+
+    private String id(String key) {
+        return bucket + "." + key;
+    }
+
+    private static <T> T await(Consumer<org.elasticsearch.action.ActionListener<T>> request) throws IOException, InterruptedException {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        request.accept(org.elasticsearch.action.ActionListener.wrap(future::complete, future::completeExceptionally));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private synchronized void fail(Exception e) {
+        if (state == State.RUNNING) {
+            state = State.FAILED;
+            error = String.valueOf(e);
+            saveQuietly();
+        }
+    }
+
+    private synchronized void finish() {
+        if (stopped) {
+            return;
+        }
+        if (state == State.RUNNING && ranges.stream().allMatch(KeyRange::isDone)) {
+            state = State.COMPLETED;
+            saveQuietly();
+            LOGGER.info("Reconciled bucket [{}]: [{}].", bucket, totals());
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it over the last one, so that a crash leaves either of them.
+     */
+    private void save() throws IOException {
+        Map<String, Object> map = toMap();
+        List<Map<String, Object>> list = new ArrayList<>(ranges.size());
+        for (KeyRange range : ranges) {
+            list.add(range.toMap());
+        }
+        map.put("ranges", list);
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temp, mapper.writeValueAsBytes(map));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.error("Failed to save checkpoint [{}].", checkpoint, e);
+        }
+    }
+
+    private Map<String, Long> totals() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (KeyRange range : ranges) {
+            range.sum(totals);
+        }
+        return totals;
+    }
+
+    synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("bucket", bucket);
+        map.put("state", state.name());
+        map.put("error", error);
+        map.put("startTime", startTime);
+        map.put("ranges", ranges.size());
+        map.put("doneRanges", ranges.stream().filter(KeyRange::isDone).count());
+        map.putAll(totals());
+        return map;
+    }
+}
@@ -0,0 +1,92 @@
+package io.ceph.rgw.notification.reconcile;
+
+import io.ceph.rgw.client.config.Configuration;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Properties of {@link Reconciler}.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+public class ReconcileProperties {
+    private final String checkpointDir;
+    private final List<String> boundaries;
+    private final Integer concurrency;
+    private final Integer rate;
+    private final Integer pageSize;
+    private final Integer retries;
+    private final Boolean resume;
+
+    public ReconcileProperties(Configuration config) {
+        this.checkpointDir = config.getString("checkpointDir");
+        List<String> boundaries = config.getStrings("boundaries");
+        this.boundaries = boundaries == null || boundaries.isEmpty() ? Arrays.asList("1", "3", "5", "7", "9", "F", "M", "T", "Z", "f", "m", "t") : boundaries;
+        this.concurrency = config.getInteger("concurrency", 4);
+        this.rate = config.getInteger("rate", 200);
+        this.pageSize = config.getInteger("pageSize", 1000);
+        this.retries = config.getInteger("retries", 3);
+        this.resume = config.getBoolean("resume", Boolean.TRUE);
+    }
+
+    public String getCheckpointDir() {
+        return checkpointDir;
+    }
+
+    /**
+     * Returns the keys that split a bucket into ranges listed in parallel, each range is after a boundary and up to the next one.
+     */
+    public List<String> getBoundaries() {
+        return boundaries;
+    }
+
+    /**
+     * Returns the number of ranges reconciled at the same time, across all buckets.
+     */
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Returns the maximum GetObjectInfo requests per second to Rados gateway, across all buckets.
+     */
+    public Integer getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the number of keys listed, searched and written in bulk at a time, which are checkpointed together.
+     */
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the times a GetObjectInfo request failed on a key still listed is retried, before the page fails without being checkpointed.
+     */
+    public Integer getRetries() {
+        return retries;
+    }
+
+    /**
+     * Returns whether jobs interrupted by a shutdown are resumed from their checkpoints on start.
+     */
+    public Boolean isResume() {
+        return resume;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconcileProperties{" +
+                "checkpointDir='" + checkpointDir + '\'' +
+                ", boundaries=" + boundaries +
+                ", concurrency=" + concurrency +
+                ", rate=" + rate +
+                ", pageSize=" + pageSize +
+                ", retries=" + retries +
+                ", resume=" + resume +
+                '}';
+    }
+}
@@ -0,0 +1,209 @@
+package io.ceph.rgw.notification.reconcile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ceph.rgw.client.ObjectClient;
+import io.ceph.rgw.client.config.Configuration;
+import io.ceph.rgw.client.util.AbstractClosable;
+import io.ceph.rgw.notification.elasticsearch.ESClient;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Backfills and reconciles the ElasticSearch index with the objects of buckets, for objects whose events were never indexed,
+ * like those written while the service or ElasticSearch was down, or before notifications were enabled on the bucket.
+ * A job reconciles a bucket, its ranges are reconciled by a fixed pool shared by all jobs,
+ * and the object info lookups of all jobs are within one rate limit.
+ * <p>
+ * Every job has a checkpoint in the checkpoint directory, named after the bucket,
+ * jobs running when the service shut down are resumed on start.
+ * Jobs are started, cancelled and resumed on a control thread, so that callers on event loops never block on checkpoints.
+ *
+ * @author zhuangshuo
+ * Created by zhuangshuo on 2020/7/12.
+ */
+public class Reconciler extends AbstractClosable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Reconciler.class);
+    private static final Pattern BUCKET = Pattern.compile("[A-Za-z0-9._-]{1,255}");
+    private static final String SUFFIX = ".json";
+    private final ReconcileProperties properties;
+    private final Path dir;
+    private final ObjectClient objectClient;
+    private final ESClient esClient;
+    private final RateLimiter limiter;
+    private final ExecutorService executor;
+    // reads and writes checkpoints on behalf of callers, which are not to block on file I/O
+    private final ExecutorService control;
+    private final ConcurrentMap<String, ReconcileJob> jobs;
+    private volatile ObjectMapper mapper;
+
+    public Reconciler(Configuration config, ObjectClient objectClient, ESClient esClient) throws IOException {
+        this.properties = new ReconcileProperties(config);
+        this.dir = Paths.get(Objects.requireNonNull(properties.getCheckpointDir(), "checkpoint dir"));
+        Files.createDirectories(dir);
+        this.objectClient = Objects.requireNonNull(objectClient);
+        this.esClient = Objects.requireNonNull(esClient);
+        this.limiter = new RateLimiter(properties.getRate());
+        this.executor = Executors.newFixedThreadPool(properties.getConcurrency(), new DefaultThreadFactory("notification-reconcile"));
+        this.control = Executors.newSingleThreadExecutor(new DefaultThreadFactory("notification-reconcile-control"));
+        this.jobs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts with the mapper documents are serialized with, the same as of the indexed events,
+     * then resumes the jobs that were running, on the control thread.
+     */
+    public void start(ObjectMapper mapper) {
+        this.mapper = Objects.requireNonNull(mapper);
+        LOGGER.info("Reconciler started with [{}].", properties);
+        if (properties.isResume()) {
+            control.execute(this::resume);
+        }
+    }
+
+    private void resume() {
+        try (DirectoryStream<Path> checkpoints = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path checkpoint : checkpoints) {
+                ReconcileJob job;
+                try {
+                    job = ReconcileJob.load(checkpoint, this);
+                } catch (IOException | IllegalArgumentException e) {
+                    LOGGER.error("Failed to load checkpoint [{}].", checkpoint, e);
+                    continue;
+                }
+                jobs.put(job.getBucket(), job);
+                if (job.getState() == ReconcileJob.State.RUNNING) {
+                    LOGGER.info("Resuming reconciling bucket [{}].", job.getBucket());
+                    job.submit(executor);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to resume reconciling from checkpoint dir [{}].", dir, e);
+        }
+    }
+
+    /**
+     * Starts reconciling a bucket, resumed from its checkpoint unless the last job completed or restart is requested.
+     * The checkpoint is read and written on the control thread, the future completes with the status of the job,
+     * or null if the bucket is being reconciled.
+     *
+     * @throws IllegalArgumentException if the bucket name is invalid
+     */
+    public CompletableFuture<Map<String, Object>> reconcile(String bucket, boolean restart) {
+        if (!BUCKET.matcher(bucket).matches()) {
+            throw new IllegalArgumentException("invalid bucket: " + bucket);
+        }
+        if (mapper == null) {
+            throw new IllegalStateException("reconciler not started");
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            ReconcileJob running = jobs.get(bucket);
+            if (running != null && running.getState() == ReconcileJob.State.RUNNING) {
+                return null;
+            }
+            Path checkpoint = dir.resolve(bucket + SUFFIX);
+            try {
+                ReconcileJob job = null;
+                if (!restart && Files.exists(checkpoint)) {
+                    job = ReconcileJob.load(checkpoint, this);
+                    if (job.getState() == ReconcileJob.State.COMPLETED) {
+                        job = null;
+                    }
+                }
+                if (job == null) {
+                    job = ReconcileJob.create(bucket, checkpoint, properties.getBoundaries(), this);
+                }
+                jobs.put(bucket, job);
+                job.submit(executor);
+                return job.toMap();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, control);
+    }
+
+    /**
+     * Cancels reconciling a bucket on the control thread, the future completes with false if it is not being reconciled.
+     */
+    public CompletableFuture<Boolean> cancel(String bucket) {
+        return CompletableFuture.supplyAsync(() -> {
+            ReconcileJob job = jobs.get(bucket);
+            if (job == null || job.getState() != ReconcileJob.State.RUNNING) {
+                return false;
+            }
+            job.cancel();
+            return true;
+        }, control);
+    }
+
+    /**
+     * Returns the status and counts of the jobs since start, and those resumable from checkpoints,
+     * on the control thread, since a job is locked while checkpointing.
+     */
+    public CompletableFuture<List<Map<String, Object>>> stats() {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Map<String, Object>> stats = new ArrayList<>(jobs.size());
+            for (ReconcileJob job : jobs.values()) {
+                stats.add(job.toMap());
+            }
+            return stats;
+        }, control);
+    }
+
+    ReconcileProperties getProperties() {
+        return properties;
+    }
+
+    ObjectClient getObjectClient() {
+        return objectClient;
+    }
+
+    ESClient getEsClient() {
+        return esClient;
+    }
+
+    ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    RateLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    protected void doClose() {
+        control.shutdownNow();
+        jobs.values().forEach(ReconcileJob::stop);
+        executor.shutdownNow();
+        try {
+            if (!control.awaitTermination(10, TimeUnit.SECONDS) || !executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out waiting for reconcile threads.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+}